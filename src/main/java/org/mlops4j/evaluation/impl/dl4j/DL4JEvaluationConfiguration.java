@@ -29,8 +29,6 @@ import org.mlops4j.storage.api.exception.DurabilityException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
@@ -54,7 +52,7 @@ public abstract class DL4JEvaluationConfiguration implements EvaluationConfigura
         }
 
         public <N extends Model> Builder network(InputStream network) throws IOException {
-            this.network = ModelSerializer.restoreMultiLayerNetwork(network, true);
+            this.network = Metadata.readContent(network, content -> ModelSerializer.restoreMultiLayerNetwork(content, true));
             return this;
         }
     }
@@ -77,23 +75,12 @@ public abstract class DL4JEvaluationConfiguration implements EvaluationConfigura
             return Representation.of(this.network);
         }
 
-        @SuppressWarnings("ResultOfMethodCallIgnored")
         @Override
         public Metadata getMetadata() throws DurabilityException {
-            Path tempFile = null;
-            try {
-                tempFile = Files.createTempFile("mlops4j-model", ".bin");
-                // TODO what about data normalization?
-                // TODO handle type mismatch issue
-                ModelSerializer.writeModel((Model) this.network, tempFile.toFile(), true);
-                return new Metadata<>(this).withParameter("network", tempFile);
-            } catch (IOException e) {
-                throw new DurabilityException("Cannot serialize network", e);
-            } finally {
-                if (tempFile != null) {
-                    tempFile.toFile().delete();
-                }
-            }
+            // TODO what about data normalization?
+            // TODO handle type mismatch issue
+            return new Metadata<>(this)
+                    .withContent("network", this.network, file -> ModelSerializer.writeModel((Model) this.network, file, true));
         }
 
     }
@@ -20,10 +20,17 @@ package org.mlops4j.experiment.api;
 import org.mlops4j.storage.api.Durable;
 import org.mlops4j.storage.api.exception.DurabilityException;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
  */
 
 public interface ExperimentRepository extends Durable<ExperimentRepository> {
     void put(Experiment experiment) throws DurabilityException;
+
+    /**
+     * Stores experiment without blocking calling thread on I/O. Returned future fails with {@link DurabilityException}.
+     */
+    CompletableFuture<Void> putAsync(Experiment experiment);
 }
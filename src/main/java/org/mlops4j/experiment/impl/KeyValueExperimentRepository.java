@@ -25,6 +25,8 @@ import org.mlops4j.storage.api.KeyValueStorage;
 import org.mlops4j.storage.api.Metadata;
 import org.mlops4j.storage.api.exception.DurabilityException;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
  */
@@ -46,7 +48,18 @@ public class KeyValueExperimentRepository implements ExperimentRepository {
     @Override
     public void put(Experiment experiment) throws DurabilityException {
         final String key = new String(experiment.getId().asBytes());
-        final Metadata<Experiment> metadata = experiment.getMetadata();
+        final Metadata<Experiment> metadata = Metadata.of(experiment);
         this.storage.put(key, metadata.asBytes());
     }
+
+    @Override
+    public CompletableFuture<Void> putAsync(Experiment experiment) {
+        final String key = new String(experiment.getId().asBytes());
+        try {
+            final Metadata<Experiment> metadata = Metadata.of(experiment);
+            return this.storage.async().put(key, metadata.asBytes());
+        } catch (DurabilityException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
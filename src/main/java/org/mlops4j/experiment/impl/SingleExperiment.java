@@ -82,26 +82,23 @@ public class SingleExperiment implements Experiment {
 
     @Override
     public CompletableFuture<ExperimentResult> run() {
-        try {
-            start();
-        } catch (DurabilityException e) {
-            return CompletableFuture.completedFuture(new ExperimentResult(e));
-        }
-
-        return model.fit(this.trainDataSet).thenCompose(fitResult -> {
-            if (fitResult.isSuccessful()) {
-                CompletableFuture<EvaluationResult> evaluation = model.evaluate(evalDataSet);
-                return evaluation.thenApply(evalResult -> new ExperimentResult(fitResult, evalResult));
-            } else {
-                return CompletableFuture.completedFuture(new ExperimentResult(fitResult, null));
+        return start().handle((started, e) -> e).thenCompose(startFailure -> {
+            if (startFailure != null) {
+                return CompletableFuture.completedFuture(new ExperimentResult(DurabilityException.of(startFailure)));
             }
-        }).thenApply(result -> {
-            try {
-                this.stop();
+            return model.fit(this.trainDataSet).thenCompose(fitResult -> {
+                if (fitResult.isSuccessful()) {
+                    CompletableFuture<EvaluationResult> evaluation = model.evaluate(evalDataSet);
+                    return evaluation.thenApply(evalResult -> new ExperimentResult(fitResult, evalResult));
+                } else {
+                    return CompletableFuture.completedFuture(new ExperimentResult(fitResult, null));
+                }
+            }).thenCompose(result -> this.stop().handle((stopped, e) -> {
+                if (e != null) {
+                    return new ExperimentResult(result, "Failure when stopping experiment", DurabilityException.of(e));
+                }
                 return result;
-            } catch (DurabilityException e) {
-                return new ExperimentResult(result, "Failure when stopping experiment", e);
-            }
+            }));
         });
     }
 
@@ -111,23 +108,24 @@ public class SingleExperiment implements Experiment {
                 trainDataSet.getId(), evalDataSet.getId());
     }
 
-    private void start() throws DurabilityException {
+    private CompletableFuture<Void> start() {
         LOG.info("Starting experiment with model {}, train set {} and eval set {}",
                 this.model.getId(),
                 this.trainDataSet.getId(),
                 this.evalDataSet.getId());
         this.startTime = LocalDateTime.now().toInstant(ZoneOffset.UTC);
-        this.experimentRepository.put(this);
+        return this.experimentRepository.putAsync(this);
     }
 
-    private void stop() throws DurabilityException {
+    private CompletableFuture<Void> stop() {
         LOG.info("Stopping experiment with model {}, train set {} and eval set {}",
                 this.model.getId(),
                 this.trainDataSet.getId(),
                 this.evalDataSet.getId());
-        this.experimentRepository.put(this);
-        this.endTime = LocalDateTime.now().toInstant(ZoneOffset.UTC);
-        LOG.info("Duration: {}", this.getDuration());
+        return this.experimentRepository.putAsync(this).thenRun(() -> {
+            this.endTime = LocalDateTime.now().toInstant(ZoneOffset.UTC);
+            LOG.info("Duration: {}", this.getDuration());
+        });
     }
 
     public void setStartTime(Instant startTime) {
@@ -67,16 +67,16 @@ public class BaseModel implements Model {
     public CompletableFuture<FitResult> fit(DataSet trainSet) {
         CompletableFuture<FitResult> fitResult = this.trainer.fit(this, trainSet);
         return Optional.ofNullable(this.modelRegistry).map(
-                mr -> fitResult.thenApply(
+                mr -> fitResult.thenCompose(
                         fr -> {
                             this.updateModelId(trainSet.getId(), fr.getIterationsDone());
-                            try {
-                                this.modelRegistry.put(this);
-                            } catch (DurabilityException e) {
-                                //TODO add logging
-                                return FitResult.failure(fr.getIterationsDone(), e, "Cannot put model in repository");
-                            }
-                            return fr;
+                            return this.modelRegistry.putAsync(this).handle((stored, e) -> {
+                                if (e != null) {
+                                    //TODO add logging
+                                    return FitResult.failure(fr.getIterationsDone(), DurabilityException.of(e), "Cannot put model in repository");
+                                }
+                                return fr;
+                            });
                         })
         ).orElse(fitResult);
     }
@@ -101,15 +101,15 @@ public class BaseModel implements Model {
 
     @Override
     public CompletableFuture<EvaluationResult> evaluate(DataSet evalSet) {
-        return this.evaluator.evaluate(this, evalSet).thenApply(result -> {
+        return this.evaluator.evaluate(this, evalSet).thenCompose(result -> {
             Iterables.addAll(this.evaluations, result.getEvaluations());
-            try {
-                this.modelRegistry.put(this);
-            } catch (DurabilityException e) {
-                //TODO add logging
-                return EvaluationResult.failure(this.evaluations, e, "Cannot put model in repository");
-            }
-            return result;
+            return this.modelRegistry.putAsync(this).handle((stored, e) -> {
+                if (e != null) {
+                    //TODO add logging
+                    return EvaluationResult.failure(this.evaluations, DurabilityException.of(e), "Cannot put model in repository");
+                }
+                return result;
+            });
         });
     }
 
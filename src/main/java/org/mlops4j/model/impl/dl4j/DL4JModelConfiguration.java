@@ -29,8 +29,6 @@ import org.mlops4j.storage.api.exception.DurabilityException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
@@ -61,7 +59,7 @@ public abstract class DL4JModelConfiguration<MODEL extends Model> implements Mod
         }
 
         public Builder<MODEL> model(InputStream model) throws IOException {
-            network = ModelSerializer.restoreMultiLayerNetwork(model, true);
+            network = Metadata.readContent(model, content -> ModelSerializer.restoreMultiLayerNetwork(content, true));
             return this;
         }
     }
@@ -93,22 +91,10 @@ public abstract class DL4JModelConfiguration<MODEL extends Model> implements Mod
 
         @Override
         public Metadata getMetadata() throws DurabilityException {
-            Path tempFile = null;
-            try {
-                tempFile = Files.createTempFile("mlops4j-model", ".bin");
-                // TODO what about data normalization?
-                ModelSerializer.writeModel(this.network, tempFile.toFile(), true);
-                return new Metadata(this)
-                        .withParameter("configuration", configuration.toJson())
-                        .withParameter("model", tempFile);
-            } catch (IOException e) {
-                throw new DurabilityException("Cannot serialize network", e);
-            } finally {
-                if (tempFile != null) {
-                    //noinspection ResultOfMethodCallIgnored
-                    tempFile.toFile().delete();
-                }
-            }
+            // TODO what about data normalization?
+            return new Metadata(this)
+                    .withParameter("configuration", configuration.toJson())
+                    .withContent("model", this.network, file -> ModelSerializer.writeModel(this.network, file, true));
         }
 
     }
@@ -26,7 +26,9 @@ import org.mlops4j.storage.api.exception.DurabilityException;
 import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
 
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
@@ -35,8 +37,19 @@ import java.util.Optional;
 public interface ModelRegistry extends Durable<ModelRegistry> {
     Optional<Model> get(ModelId id) throws DurabilityException;
 
+    /**
+     * Restores only given parameters of stored model, like "id", "parent" or "evaluations", without building the model
+     * and restoring its content.
+     */
+    Optional<Map<String, Object>> project(ModelId id, String... parameters) throws DurabilityException;
+
     void put(Model model) throws DurabilityException;
 
+    /**
+     * Stores model without blocking calling thread on I/O. Returned future fails with {@link DurabilityException}.
+     */
+    CompletableFuture<Void> putAsync(Model model);
+
     Iterator<ModelId> list() throws DurabilityException;
 
 }
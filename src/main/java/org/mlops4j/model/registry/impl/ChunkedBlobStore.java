@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.model.registry.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stores binary files of models split into content defined chunks, each chunk kept once under its own hash, so
+ * successive iterations of a model share the chunks of unchanged parameters. Every file has a manifest listing its
+ * chunks, written after all of them, so present manifest means complete file.
+ * <p>
+ * Files stored as a whole under {@code content/<hash>}, before chunking was introduced, are still readable.
+ * <p>
+ * Keys of files and chunks being written are guarded against garbage collection running in the same JVM.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public class ChunkedBlobStore {
+    static final String CONTENT = "content/";
+    static final String MANIFESTS = CONTENT + "manifests/";
+    static final String CHUNKS = CONTENT + "chunks/";
+    static final ContentGuard GUARD = new ContentGuard();
+    private static final int BATCH_SIZE = 4 * 1024 * 1024;
+    private static final int BATCH_CHUNKS = BATCH_SIZE / ContentDefinedChunker.MAX_SIZE;
+
+    private final KeyValueStorage storage;
+
+    public ChunkedBlobStore(KeyValueStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Stores file under its hash, writing only chunks which are not stored yet. Chunks are written in batches.
+     */
+    public void put(String hash, Path source) throws DurabilityException {
+        Set<String> guarded = Sets.newHashSet();
+        try {
+            this.put(hash, source, guarded);
+        } finally {
+            guarded.forEach(GUARD::release);
+        }
+    }
+
+    private void put(String hash, Path source, Set<String> guarded) throws DurabilityException {
+        String manifestKey = MANIFESTS + hash;
+        this.guard(manifestKey, guarded);
+        if (this.exists(manifestKey)) {
+            return;
+        }
+        JSONArray chunks = new JSONArray();
+        Map<String, byte[]> pending = Maps.newLinkedHashMap();
+        long pendingSize = 0;
+        try (InputStream content = Files.newInputStream(source)) {
+            ContentDefinedChunker chunker = new ContentDefinedChunker(content);
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+                String chunkHash = Hashing.sha256().hashBytes(chunk).toString();
+                chunks.put(new JSONObject().put("hash", chunkHash).put("length", chunk.length));
+                String chunkKey = CHUNKS + chunkHash;
+                this.guard(chunkKey, guarded);
+                if (!pending.containsKey(chunkKey) && !this.exists(chunkKey)) {
+                    pending.put(chunkKey, chunk);
+                    pendingSize += chunk.length;
+                }
+                if (pendingSize >= BATCH_SIZE) {
+                    this.storage.putAll(pending);
+                    pending.clear();
+                    pendingSize = 0;
+                }
+            }
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot read from file %s", source), e);
+        }
+        if (!pending.isEmpty()) {
+            this.storage.putAll(pending);
+        }
+        this.storage.put(manifestKey, new JSONObject().put("chunks", chunks).toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void guard(String key, Set<String> guarded) {
+        if (guarded.add(key)) {
+            GUARD.acquire(key);
+        }
+    }
+
+    /**
+     * Guards files of given hashes against garbage collection, until they are released. It covers the time between
+     * storing the files and storing the metadata, which references them.
+     */
+    void acquire(Collection<String> hashes) {
+        hashes.forEach(hash -> {
+            GUARD.acquire(MANIFESTS + hash);
+            GUARD.acquire(CONTENT + hash);
+        });
+    }
+
+    void release(Collection<String> hashes) {
+        hashes.forEach(hash -> {
+            GUARD.release(MANIFESTS + hash);
+            GUARD.release(CONTENT + hash);
+        });
+    }
+
+    /**
+     * Same as {@link #put(String, Path)}, but chunking and writing are done on executor of asynchronous facet of the
+     * storage.
+     */
+    public CompletableFuture<Void> putAsync(String hash, Path source) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        this.storage.async().executor().execute(() -> {
+            try {
+                this.put(hash, source);
+                result.complete(null);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Restores file of given hash into target path, reading its chunks in batches.
+     */
+    public void get(String hash, Path target) throws DurabilityException {
+        Optional<byte[]> manifest = this.storage.get(MANIFESTS + hash);
+        if (manifest.isEmpty()) {
+            this.getWhole(hash, target);
+            return;
+        }
+        List<String> chunkKeys = Lists.newArrayList();
+        JSONArray chunks = new JSONObject(new String(manifest.get(), StandardCharsets.UTF_8)).getJSONArray("chunks");
+        for (int i = 0; i < chunks.length(); i++) {
+            chunkKeys.add(CHUNKS + chunks.getJSONObject(i).getString("hash"));
+        }
+        try (OutputStream content = new BufferedOutputStream(Files.newOutputStream(target))) {
+            for (List<String> batch : Lists.partition(chunkKeys, BATCH_CHUNKS)) {
+                Map<String, byte[]> values = this.storage.getAll(Sets.newLinkedHashSet(batch));
+                for (String chunkKey : batch) {
+                    byte[] chunk = Optional.ofNullable(values.get(chunkKey)).orElseThrow(() ->
+                            new DurabilityException(String.format("Missing chunk %s of file with hash %s", chunkKey, hash)));
+                    content.write(chunk);
+                }
+            }
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot write %s to temporary file", hash), e);
+        }
+    }
+
+    private void getWhole(String hash, Path target) throws DurabilityException {
+        InputStream content = this.storage.getStream(CONTENT + hash)
+                .orElseThrow(() -> new DurabilityException(String.format("Missing file with hash %s", hash)));
+        try (content) {
+            Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot write %s to temporary file", hash), e);
+        }
+    }
+
+    private boolean exists(String key) throws DurabilityException {
+        Optional<InputStream> content = this.storage.getStream(key);
+        content.ifPresent(IOUtils::closeQuietly);
+        return content.isPresent();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.model.registry.impl;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mlops4j.api.exception.StreamException;
+import org.mlops4j.model.api.Model;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Mark and sweep collection of content of chunked blob store. Hashes referenced by metadata of all models are marked
+ * first, then manifests and whole files of other hashes are swept, followed by chunks not listed by any remaining
+ * manifest. Keys are listed page by page, so the collection does not hold a listing open for its whole run, and
+ * deletes are rate limited.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+class ContentCollector {
+    private static final Logger LOG = LoggerFactory.getLogger(ContentCollector.class);
+    private static final int PAGE_SIZE = 1000;
+
+    private final KeyValueStorage storage;
+    private final String models;
+    private final RateLimiter deletes;
+
+    ContentCollector(KeyValueStorage storage, String models, double deletesPerSecond) {
+        this.storage = storage;
+        this.models = models;
+        this.deletes = RateLimiter.create(deletesPerSecond);
+    }
+
+    long collect() throws DurabilityException {
+        ChunkedBlobStore.GUARD.startCollection();
+        try {
+            Set<String> live = this.mark();
+            Set<String> liveChunks = Sets.newHashSet();
+            long deleted = 0;
+            String manifests = prefix(ChunkedBlobStore.MANIFESTS);
+            for (PagedKeys keys = new PagedKeys(manifests); keys.hasNext(); ) {
+                String hash = keys.next();
+                if (!live.contains(hash) && this.sweep(ChunkedBlobStore.MANIFESTS + hash)) {
+                    deleted++;
+                } else {
+                    this.storage.get(ChunkedBlobStore.MANIFESTS + hash).ifPresent(manifest -> {
+                        JSONArray chunks = new JSONObject(new String(manifest, StandardCharsets.UTF_8)).getJSONArray("chunks");
+                        for (int i = 0; i < chunks.length(); i++) {
+                            liveChunks.add(chunks.getJSONObject(i).getString("hash"));
+                        }
+                    });
+                }
+            }
+            for (PagedKeys keys = new PagedKeys(prefix(ChunkedBlobStore.CONTENT)); keys.hasNext(); ) {
+                String hash = keys.next();
+                // only whole files lie directly under content
+                if (!hash.contains("/") && !live.contains(hash) && this.sweep(ChunkedBlobStore.CONTENT + hash)) {
+                    deleted++;
+                }
+            }
+            for (PagedKeys keys = new PagedKeys(prefix(ChunkedBlobStore.CHUNKS)); keys.hasNext(); ) {
+                String hash = keys.next();
+                if (!liveChunks.contains(hash) && this.sweep(ChunkedBlobStore.CHUNKS + hash)) {
+                    deleted++;
+                }
+            }
+            LOG.debug("Collected {} content keys, {} hashes and {} chunks are live", deleted, live.size(), liveChunks.size());
+            return deleted;
+        } finally {
+            ChunkedBlobStore.GUARD.stopCollection();
+        }
+    }
+
+    private Set<String> mark() throws DurabilityException {
+        Set<String> live = Sets.newHashSet();
+        try (CloseableIterator<byte[]> values = this.storage.scanValues(this.models)) {
+            while (values.hasNext()) {
+                Metadata<Model> metadata = new Metadata<>();
+                metadata.fromBytes(values.next());
+                live.addAll(metadata.getHashes());
+            }
+        } catch (StreamException e) {
+            throw (DurabilityException) e.getCause();
+        }
+        return live;
+    }
+
+    private boolean sweep(String key) throws DurabilityException {
+        this.deletes.acquire();
+        return ChunkedBlobStore.GUARD.deleteIfUnused(key, this.storage);
+    }
+
+    private static String prefix(String namespace) {
+        return namespace.substring(0, namespace.length() - 1);
+    }
+
+    /**
+     * Keys under prefix fetched in pages, each page starting after the last key of the previous one.
+     */
+    private class PagedKeys {
+        private final String prefix;
+        private Iterator<String> keys;
+        private String last;
+        private int count;
+
+        private PagedKeys(String prefix) throws DurabilityException {
+            this.prefix = prefix;
+            this.keys = storage.list(prefix, null, PAGE_SIZE);
+        }
+
+        private boolean hasNext() throws DurabilityException {
+            if (!this.keys.hasNext() && this.count == PAGE_SIZE) {
+                this.keys = storage.list(this.prefix, this.last, PAGE_SIZE);
+                this.count = 0;
+            }
+            return this.keys.hasNext();
+        }
+
+        private String next() {
+            this.last = this.keys.next();
+            this.count++;
+            return this.last;
+        }
+    }
+}
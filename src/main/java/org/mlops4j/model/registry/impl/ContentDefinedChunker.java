@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.model.registry.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits stream into chunks at positions chosen by rolling gear hash of the last 64 bytes, so an insertion or change
+ * in one part of the stream moves only the boundaries around it and the remaining chunks stay the same.
+ * <p>
+ * Chunks are between {@value #MIN_SIZE} and {@value #MAX_SIZE} bytes, {@value #MIN_SIZE} + 64KB on average.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+class ContentDefinedChunker {
+    static final int MIN_SIZE = 16 * 1024;
+    static final int MAX_SIZE = 256 * 1024;
+    // 16 highest bits, which depend on all bytes of the window
+    private static final long MASK = 0xffff_0000_0000_0000L;
+    // fixed seed, boundaries have to be the same in every run for chunks to be shared
+    private static final long[] GEAR = new Random(0x6d6c6f707334L).longs(256).toArray();
+
+    private final InputStream content;
+    private final byte[] buffer = new byte[MAX_SIZE];
+    private int filled;
+
+    ContentDefinedChunker(InputStream content) {
+        this.content = content;
+    }
+
+    /**
+     * @return next chunk or {@code null} if stream is exhausted
+     */
+    byte[] next() throws IOException {
+        while (this.filled < this.buffer.length) {
+            int read = this.content.read(this.buffer, this.filled, this.buffer.length - this.filled);
+            if (read < 0) {
+                break;
+            }
+            this.filled += read;
+        }
+        if (this.filled == 0) {
+            return null;
+        }
+        int boundary = boundary(this.buffer, this.filled);
+        byte[] chunk = Arrays.copyOf(this.buffer, boundary);
+        System.arraycopy(this.buffer, boundary, this.buffer, 0, this.filled - boundary);
+        this.filled -= boundary;
+        return chunk;
+    }
+
+    private static int boundary(byte[] data, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        long hash = 0;
+        for (int i = MIN_SIZE; i < length; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.model.registry.impl;
+
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps content keys used by writes in progress away from garbage collection. Keys acquired or released while
+ * collection runs are remembered until it ends, since collection might have marked live content before they were
+ * referenced. Deletion of a key is atomic with respect to acquiring it, so a write either sees the key deleted and
+ * stores it again or keeps it.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+final class ContentGuard {
+    private final ConcurrentMap<String, Integer> inFlight = new ConcurrentHashMap<>();
+    private volatile ConcurrentMap<String, Boolean> touched;
+
+    void acquire(String key) {
+        this.inFlight.merge(key, 1, Integer::sum);
+        this.touch(key);
+    }
+
+    void release(String key) {
+        this.touch(key);
+        this.inFlight.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+    }
+
+    private void touch(String key) {
+        ConcurrentMap<String, Boolean> touched = this.touched;
+        if (touched != null) {
+            touched.put(key, Boolean.TRUE);
+        }
+    }
+
+    synchronized void startCollection() {
+        if (this.touched != null) {
+            throw new IllegalStateException("Garbage collection is already running");
+        }
+        this.touched = new ConcurrentHashMap<>();
+    }
+
+    synchronized void stopCollection() {
+        this.touched = null;
+    }
+
+    /**
+     * Deletes key unless it is in flight or has been touched since collection started.
+     *
+     * @return whether the key has been deleted
+     */
+    boolean deleteIfUnused(String key, KeyValueStorage storage) throws DurabilityException {
+        DurabilityException[] failure = new DurabilityException[1];
+        boolean[] deleted = new boolean[1];
+        this.touched.compute(key, (k, touched) -> {
+            if (touched == null && !this.inFlight.containsKey(k)) {
+                try {
+                    storage.delete(k);
+                    deleted[0] = true;
+                } catch (DurabilityException e) {
+                    failure[0] = e;
+                }
+            }
+            return touched;
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return deleted[0];
+    }
+}
@@ -18,77 +18,164 @@
 package org.mlops4j.model.registry.impl;
 
 import com.google.common.collect.Iterators;
-import lombok.AllArgsConstructor;
+import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
 import org.mlops4j.api.exception.StreamException;
 import org.mlops4j.model.api.Model;
 import org.mlops4j.model.api.ModelId;
 import org.mlops4j.model.registry.api.ModelRegistry;
 import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
 import org.mlops4j.storage.api.KeyValueStorage;
 import org.mlops4j.storage.api.Metadata;
 import org.mlops4j.storage.api.exception.DurabilityException;
 import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+import org.mlops4j.storage.impl.SingleFlight;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
  */
-@AllArgsConstructor
 public class KeyValueModelRegistry implements ModelRegistry {
 
     private static final String MODELS = "models";
-    private static final String CONTENT = "content";
     private final KeyValueStorage storage;
+    private final ChunkedBlobStore blobs;
+    private final SingleFlight<ModelId, Optional<byte[]>> loads = new SingleFlight<>();
+    private final SingleFlight<String, String> restores = new SingleFlight<>();
 
+    public KeyValueModelRegistry(KeyValueStorage storage) {
+        this.storage = storage;
+        this.blobs = new ChunkedBlobStore(storage);
+    }
+
+    /**
+     * Concurrent readers of the same model share one read of its metadata and one restore of its files, each of them
+     * gets its own instance of the model.
+     */
     @Override
     public Optional<Model> get(ModelId id) throws DurabilityException {
-        // TODO check if lock is present
-        Optional<byte[]> modelContent = storage.get(MODELS + "/" + new String(id.asBytes()));
+        Optional<byte[]> modelContent = this.loads.load(id, () -> this.load(id));
         if (modelContent.isPresent()) {
-            byte[] modelBinary = modelContent.get();
             Metadata<Model> modelMetadata = new Metadata<>();
-            modelMetadata.fromBytes(modelBinary);
-            //TODO move it to the same class that performs writing to temporary storage
-            //TODO how about going in parallel
-            for (String hash : modelMetadata.getHashes()) {
-                Path targetPath = Paths.get(FileUtils.getTempDirectoryPath(), hash);
-                //TODO think about streaming
-                byte[] content = storage.get(CONTENT + "/" + hash).orElseThrow(() -> new DurabilityException(String.format("Missing file with hash %s", hash)));
-                try {
-                    FileUtils.writeByteArrayToFile(targetPath.toFile(), content);
-                } catch (IOException e) {
-                    throw new DurabilityException(String.format("Cannot write %s to temporary tile", hash), e);
-                }
-            }
+            modelMetadata.fromBytes(modelContent.get());
             return Optional.of(modelMetadata.getDurable());
         } else {
             return Optional.empty();
         }
     }
 
+    @Override
+    public Optional<Map<String, Object>> project(ModelId id, String... parameters) throws DurabilityException {
+        Optional<byte[]> modelContent = storage.get(MODELS + "/" + new String(id.asBytes()));
+        if (modelContent.isPresent()) {
+            Metadata<Model> modelMetadata = new Metadata<>();
+            modelMetadata.fromBytes(modelContent.get());
+            return Optional.of(modelMetadata.project(parameters));
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    private Optional<byte[]> load(ModelId id) throws DurabilityException {
+        // TODO check if lock is present
+        Optional<byte[]> modelContent = storage.get(MODELS + "/" + new String(id.asBytes()));
+        if (modelContent.isPresent()) {
+            Metadata<Model> modelMetadata = new Metadata<>();
+            modelMetadata.fromBytes(modelContent.get());
+            //TODO move it to the same class that performs writing to temporary storage
+            StreamException.<DurabilityException>tryRun(() ->
+                    modelMetadata.getHashes().parallelStream().forEach(hash -> {
+                        try {
+                            this.restores.load(hash, () -> {
+                                this.blobs.get(hash, Paths.get(FileUtils.getTempDirectoryPath(), hash));
+                                return hash;
+                            });
+                        } catch (DurabilityException e) {
+                            throw new StreamException(e);
+                        }
+                    })
+            );
+        }
+        return modelContent;
+    }
+
+    /**
+     * @return number of model reads, which shared metadata or file restore with a concurrent read
+     */
+    public long getDeduplicatedLoadCount() {
+        return this.loads.getDeduplicatedCount() + this.restores.getDeduplicatedCount();
+    }
+
     @Override
     public void put(Model model) throws DurabilityException {
+        try {
+            this.putAsync(model).join();
+        } catch (CompletionException e) {
+            throw DurabilityException.of(e);
+        }
+    }
+
+    /**
+     * Describes the model on executor of asynchronous facet of the storage, as it writes and hashes whole content of
+     * the model, so that the calling thread, typically one of computation, is not held by it.
+     */
+    @Override
+    public CompletableFuture<Void> putAsync(Model model) {
+        AsyncKeyValueStorage async = this.storage.async();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return Metadata.of(model);
+                } catch (DurabilityException e) {
+                    throw new CompletionException(e);
+                }
+            }, async.executor()).thenCompose(metadata -> this.write(model, metadata, async));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(DurabilityException.of(e));
+        }
+    }
+
+    private CompletableFuture<Void> write(Model model, Metadata<Model> metadata, AsyncKeyValueStorage async) {
         //TODO add lock
-        final Metadata<Model> metadata = model.getMetadata();
-        this.storage.put(MODELS + "/" + new String(model.getId().asBytes()), metadata.asBytes());
+        Collection<String> hashes = metadata.getHashes();
+        List<CompletableFuture<Void>> writes = Lists.newArrayList(
+                async.put(MODELS + "/" + new String(model.getId().asBytes()), metadata.asBytes()));
         //TODO move it to the same class that performs writing to temporary storage
-        StreamException.<DurabilityException>tryRun(() ->
-                //TODO use custom executor
-                metadata.getHashes().parallelStream().forEach(hash -> {
-                    try {
-                        this.putHashedContent(hash);
-                    } catch (DurabilityException e) {
-                        throw new StreamException(e);
-                    }
-                })
-        );
+        this.blobs.acquire(hashes);
+        try {
+            for (String hash : hashes) {
+                // TODO think about collision
+                writes.add(this.blobs.putAsync(hash, Paths.get(FileUtils.getTempDirectoryPath(), hash)));
+            }
+            return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]))
+                    .whenComplete((nothing, e) -> {
+                        this.blobs.release(hashes);
+                        this.loads.forget(model.getId());
+                    });
+        } catch (RuntimeException e) {
+            this.blobs.release(hashes);
+            return CompletableFuture.failedFuture(DurabilityException.of(e));
+        }
+    }
+
+    /**
+     * Removes content, which is not referenced by metadata of any model, deleting at most given number of keys per
+     * second, so that it can run next to regular traffic. Content written meanwhile through any registry of this JVM
+     * is kept, writers in other processes must not run at the same time.
+     *
+     * @return number of deleted keys
+     */
+    public long collectGarbage(double deletesPerSecond) throws DurabilityException {
+        return new ContentCollector(this.storage, MODELS, deletesPerSecond).collect();
     }
 
     @Override
@@ -102,17 +189,6 @@ public class KeyValueModelRegistry implements ModelRegistry {
         );
     }
 
-    private void putHashedContent(String hash) throws DurabilityException {
-        // TODO think about collision
-        Path path = Paths.get(FileUtils.getTempDirectoryPath(), hash);
-        try {
-            // TODO add store from file
-            storage.put(CONTENT + "/" + hash, Files.readAllBytes(path));
-        } catch (IOException e) {
-            throw new DurabilityException(String.format("Cannot read from file %s", path));
-        }
-    }
-
     @Override
     public Metadata<ModelRegistry> getMetadata() throws DurabilityException {
         return new Metadata(this)
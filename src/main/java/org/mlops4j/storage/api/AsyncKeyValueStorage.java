@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.api;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking facet of {@link KeyValueStorage}, obtained with {@link KeyValueStorage#async()}. Operations never block
+ * the calling thread on I/O; returned futures complete exceptionally with
+ * {@link org.mlops4j.storage.api.exception.DurabilityException} when the operation fails.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public interface AsyncKeyValueStorage {
+
+    CompletableFuture<Void> put(String key, byte[] value);
+
+    /**
+     * Stores content of the stream under given key. Stream has to stay open until returned future completes and is
+     * closed by the caller afterwards.
+     */
+    CompletableFuture<Void> put(String key, InputStream value);
+
+    CompletableFuture<Void> putAll(Map<String, byte[]> values);
+
+    CompletableFuture<Optional<byte[]>> get(String key);
+
+    CompletableFuture<Map<String, byte[]>> getAll(Collection<String> keys);
+
+    /**
+     * Executor, on which the storage runs its blocking work, for layers above to prepare their own values. Storages,
+     * which never block, run it directly on calling thread.
+     */
+    Executor executor();
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.api;
+
+import com.google.common.collect.Iterators;
+
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Iterator holding resources, like files opened or read ahead, until it is closed. It is closed by the caller, when
+ * it is not iterated to the end.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public final class CloseableIterator<T> implements Iterator<T>, AutoCloseable {
+    private final Iterator<T> iterator;
+    private final Runnable onClose;
+
+    private CloseableIterator(Iterator<T> iterator, Runnable onClose) {
+        this.iterator = iterator;
+        this.onClose = onClose;
+    }
+
+    public static <T> CloseableIterator<T> of(Iterator<T> iterator) {
+        return new CloseableIterator<>(iterator, () -> {
+        });
+    }
+
+    public static <T> CloseableIterator<T> of(Iterator<T> iterator, Runnable onClose) {
+        return new CloseableIterator<>(iterator, onClose);
+    }
+
+    /**
+     * Returns lazily transformed iterator, closing this one once closed.
+     */
+    public <R> CloseableIterator<R> map(Function<? super T, ? extends R> function) {
+        return new CloseableIterator<>(Iterators.transform(this.iterator, function::apply), this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.iterator.hasNext();
+    }
+
+    @Override
+    public T next() {
+        return this.iterator.next();
+    }
+
+    @Override
+    public void close() {
+        this.onClose.run();
+    }
+}
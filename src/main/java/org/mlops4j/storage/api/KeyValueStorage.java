@@ -19,20 +19,79 @@ package org.mlops4j.storage.api;
 
 import org.mlops4j.storage.api.exception.DurabilityException;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
  */
-//TODO consider streaming capability
 public interface KeyValueStorage extends Durable<KeyValueStorage> {
 
     void put(String key, byte[] value) throws DurabilityException;
 
+    /**
+     * Stores content of the stream under given key without materializing it as a whole. Stream is consumed,
+     * but not closed - it remains responsibility of the caller.
+     */
+    void put(String key, InputStream value) throws DurabilityException;
+
+    /**
+     * Stores all given values in one batch. Implementations may write them concurrently, so the order of writes is not
+     * guaranteed and when it fails some of the values may be already stored.
+     */
+    void putAll(Map<String, byte[]> values) throws DurabilityException;
+
     Optional<byte[]> get(String key) throws DurabilityException;
 
+    /**
+     * Removes value stored under given key. Removing a key, which is not present, has no effect.
+     */
+    void delete(String key) throws DurabilityException;
+
+    /**
+     * Reads all given keys in one batch. Keys, which are not present in the storage, are missing in returned map.
+     */
+    Map<String, byte[]> getAll(Collection<String> keys) throws DurabilityException;
+
+    /**
+     * Opens content stored under given key for sequential reading. Returned stream has to be closed by the caller.
+     */
+    Optional<InputStream> getStream(String key) throws DurabilityException;
+
+    /**
+     * Returns read-only view of content stored under given key. Implementations are free to avoid copying the content
+     * to heap, so view should not be retained longer than needed.
+     */
+    Optional<ByteBuffer> getBuffer(String key) throws DurabilityException;
+
     Iterator<String> list() throws DurabilityException;
 
     Iterator<String> list(String prefix) throws DurabilityException;
+
+    /**
+     * Lists keys under given prefix in lexicographical order, relative to the prefix just like {@link #list(String)}.
+     * Listing starts after {@code startAfter} key (relative as well) or from the beginning if it is {@code null} and
+     * returns at most {@code limit} keys, so consecutive pages can be fetched with the last key of previous page.
+     */
+    Iterator<String> list(String prefix, String startAfter, int limit) throws DurabilityException;
+
+    /**
+     * Reads all entries under given prefix in one pass, in the order and with keys relative to the prefix just like
+     * {@link #list(String)}. Implementations may read values ahead, so returned iterator has to be closed by the caller.
+     */
+    CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) throws DurabilityException;
+
+    /**
+     * Reads all values under given prefix in one pass, like {@link #scan(String)} without the keys.
+     */
+    CloseableIterator<byte[]> scanValues(String prefix) throws DurabilityException;
+
+    /**
+     * Returns asynchronous facet of this storage, sharing its content, which does not block calling thread on I/O.
+     */
+    AsyncKeyValueStorage async();
 }
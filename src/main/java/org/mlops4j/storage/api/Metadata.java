@@ -23,12 +23,16 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.reflect.MethodUtils;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.mlops4j.api.ComponentBuilder;
 import org.mlops4j.storage.api.exception.ConversionException;
 import org.mlops4j.storage.api.exception.DurabilityException;
@@ -37,22 +41,37 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Parameters of a durable component, from which its builder restores it. Metadata is stored in {@link Format#BINARY}
+ * format, restored from either of formats.
+ *
  * @author Michał Żelechowski <MichalZelechowski@github.com>
  */
 
 public class Metadata<T extends Durable<T>> implements Storable {
     private final static Logger LOG = LoggerFactory.getLogger(Metadata.class);
+    private final static ConcurrentMap<Class<?>, BuilderBindings> BINDINGS = Maps.newConcurrentMap();
+    private final static ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
     private final Map<String, DurabilityEntry<?, ?>> parameters = Maps.newHashMap();
     private Class<? extends ComponentBuilder> builderClass;
     private String builderClassName;
@@ -84,35 +103,135 @@ public class Metadata<T extends Durable<T>> implements Storable {
 
     }
 
+    /**
+     * Describes durable component, so that a representation referenced more than once in its graph is written once,
+     * see {@link #withContent(String, Object, ContentWriter)}. Representations are tracked on the calling thread only,
+     * so content of components describing themselves on other threads is written once per reference.
+     */
+    public static <T extends Durable<T>> Metadata<T> of(T durable) throws DurabilityException {
+        return Scope.within(durable::getMetadata);
+    }
+
+    public enum Format {
+        /**
+         * JSON document with type of every parameter next to its value.
+         */
+        JSON,
+        /**
+         * Compact encoding with varint lengths and type tags, in which builder class names and parameter names are
+         * written once and referred by index afterwards. It starts with bytes, which cannot start JSON document.
+         */
+        BINARY
+    }
+
     @Override
     public void fromBytes(byte[] bytes) throws DurabilityException {
-        LOG.debug("Restoring metadata from bytes {}", new String(bytes));
-        JSONObject json = new JSONObject(new String(bytes));
-        this.fromJSON(json);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Restoring metadata from bytes {}", new String(bytes, StandardCharsets.UTF_8));
+        }
+        if (BinaryReader.isBinary(bytes)) {
+            this.fromBinary(new BinaryReader(bytes));
+            return;
+        }
+        this.fromJSON(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
     }
 
-    private Metadata<T> fromJSON(JSONObject json) throws DurabilityException {
-        this.builderClassName = json.getString("builderClassName");
-        this.builderClass = tryCreatingBuilderClass();
-        this.builder = tryCreatingBuilder();
+    /**
+     * Restores metadata from stream of either of formats, without reading JSON document as a whole. Stream is not
+     * closed.
+     */
+    public void fromStream(InputStream stream) throws DurabilityException {
+        InputStream input = new BufferedInputStream(stream);
+        try {
+            input.mark(BinaryReader.MAGIC.length);
+            byte[] head = input.readNBytes(BinaryReader.MAGIC.length);
+            input.reset();
+            if (BinaryReader.isBinary(head)) {
+                this.fromBinary(new BinaryReader(input.readAllBytes()));
+                return;
+            }
+        } catch (IOException e) {
+            throw new DurabilityException("Cannot read metadata from stream", e);
+        }
+        this.fromJSON(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    private void fromJSON(Reader reader) throws DurabilityException {
+        try {
+            new JsonReader(reader).readMetadata(this);
+        } catch (JSONException e) {
+            throw new DurabilityException("Cannot parse metadata", e);
+        }
+    }
+
+    private Metadata<T> fromBinary(BinaryReader reader) throws DurabilityException {
+        this.useBuilder(reader.readName());
 
-        JSONObject parameters = json.getJSONObject("parameters");
-        for (String key : parameters.keySet()) {
-            JSONObject durabilityEntry = parameters.getJSONObject(key);
-            DurabilityType type = durabilityEntry.getEnum(DurabilityType.class, "type");
-            Object value = durabilityEntry.get("value");
-            DurabilityEntry<?, ?> entry = DurabilityEntry.fromJSON(type, value);
-            this.parameters.put(key, entry);
+        int parameters = reader.readCount();
+        for (int i = 0; i < parameters; i++) {
+            String key = reader.readName();
+            this.parameters.put(key, DurabilityEntry.fromBinary(reader));
         }
         return this;
     }
 
+    /**
+     * Builder of restored metadata is resolved on first {@link #getDurable()}, so that nested components, which are
+     * never restored, do not load or instantiate their builders.
+     */
+    private void useBuilder(String builderClassName) {
+        this.builderClassName = builderClassName;
+        this.builderClass = null;
+        this.builder = null;
+    }
+
     public Metadata<T> withParameter(String name, Object value) throws DurabilityException {
         Preconditions.checkNotNull(value, "Value cannot be null");
         this.parameters.put(name, DurabilityEntry.fromReal(value));
         return this;
     }
 
+    /**
+     * Adds content written by given writer to a file. Within {@link #of(Durable)} content of the same representation,
+     * compared by identity, is written, hashed and stored once, no matter how many components refer to it, and it is
+     * recorded with a reference to the representation.
+     */
+    public Metadata<T> withContent(String name, Object representation, ContentWriter writer) throws DurabilityException {
+        Preconditions.checkNotNull(representation, "Representation cannot be null");
+        Scope scope = SCOPE.get();
+        DurabilityEntry<?, ?> entry = scope == null ? null : scope.written.get(representation);
+        if (entry == null) {
+            BinaryEntry content = BinaryEntry.write(writer);
+            if (scope == null) {
+                entry = content;
+            } else {
+                entry = new ContentEntry(content.value, UUID.randomUUID().toString());
+                scope.written.put(representation, entry);
+            }
+        }
+        this.parameters.put(name, entry);
+        return this;
+    }
+
+    /**
+     * Reads content given to a builder. Within {@link #getDurable()} content referring to the same representation is
+     * read once, and the read instance is shared by every builder it is given to. Equal content of distinct
+     * representations is read for each of them.
+     */
+    public static <R> R readContent(InputStream content, ContentReader<R> reader) throws IOException {
+        Scope scope = SCOPE.get();
+        if (scope == null || !(content instanceof ContentStream)) {
+            return reader.read(content);
+        }
+        String reference = ((ContentStream) content).reference;
+        Object restored = scope.restored.get(reference);
+        if (restored == null) {
+            restored = reader.read(content);
+            scope.restored.put(reference, restored);
+        }
+        return (R) restored;
+    }
+
     private Class<? extends ComponentBuilder<T>> tryCreatingBuilderClass() {
         try {
             Class<?> clazz = Class.forName(this.builderClassName);
@@ -137,6 +256,14 @@ public class Metadata<T extends Durable<T>> implements Storable {
     }
 
     public T getDurable() throws DurabilityException {
+        return Scope.within(this::build);
+    }
+
+    private T build() throws DurabilityException {
+        if (this.builder == null && this.builderClassName != null) {
+            this.builderClass = tryCreatingBuilderClass();
+            this.builder = tryCreatingBuilder();
+        }
         if (this.builder == null) {
             throw new DurabilityException(String.format("No builder available for %s", this.builderClassName));
         }
@@ -148,7 +275,7 @@ public class Metadata<T extends Durable<T>> implements Storable {
             Object value = null;
             try {
                 value = unit.getValue();
-                MethodUtils.invokeMethod(this.builder, name, value);
+                BuilderBindings.of(this.builder.getClass()).invoke(this.builder, name, value);
             } catch (NoSuchMethodException noSuchMethodException) {
                 throw new DurabilityException(String.format("Could not find method %s in builder %s", name, builderClassName), noSuchMethodException);
             } catch (ReflectiveOperationException ex) {
@@ -164,10 +291,51 @@ public class Metadata<T extends Durable<T>> implements Storable {
         return (T) this.builder.build();
     }
 
+    /**
+     * Restores only given parameters, without building the component itself, so that its other parameters, including
+     * nested components and their content, are never touched. Parameters absent in metadata are absent in the result.
+     */
+    public Map<String, Object> project(String... names) throws DurabilityException {
+        Map<String, Object> projection = Maps.newLinkedHashMapWithExpectedSize(names.length);
+        for (String name : names) {
+            DurabilityEntry<?, ?> entry = this.parameters.get(name);
+            if (entry != null) {
+                projection.put(name, entry.getValue());
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * Restores single parameter as {@link #project(String...)} does.
+     */
+    public <V> Optional<V> getParameter(String name) throws DurabilityException {
+        DurabilityEntry<?, ?> entry = this.parameters.get(name);
+        return entry == null ? Optional.empty() : Optional.of((V) entry.getValue());
+    }
+
     @Override
     public byte[] asBytes() {
-        JSONObject json = this.asJson();
-        return json.toString().getBytes();
+        return this.asBytes(Format.BINARY);
+    }
+
+    public byte[] asBytes(Format format) {
+        if (format == Format.JSON) {
+            JSONObject json = this.asJson();
+            return json.toString().getBytes();
+        }
+        BinaryWriter writer = new BinaryWriter();
+        this.writeTo(writer);
+        return writer.toByteArray();
+    }
+
+    private void writeTo(BinaryWriter writer) {
+        writer.writeName(this.builderClassName);
+        writer.writeVarInt(this.parameters.size());
+        for (Map.Entry<String, DurabilityEntry<?, ?>> parameter : this.parameters.entrySet()) {
+            writer.writeName(parameter.getKey());
+            parameter.getValue().writeTo(writer);
+        }
     }
 
     private JSONObject asJson() {
@@ -187,8 +355,429 @@ public class Metadata<T extends Durable<T>> implements Storable {
         return hashes;
     }
 
+    @FunctionalInterface
+    public interface ContentWriter {
+        void write(File file) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface ContentReader<R> {
+        R read(InputStream content) throws IOException;
+    }
+
+    /**
+     * Content written and read while describing or restoring single graph of components on current thread.
+     */
+    private static final class Scope {
+        private final Map<Object, DurabilityEntry<?, ?>> written = Maps.newIdentityHashMap();
+        private final Map<String, Object> restored = Maps.newHashMap();
+        private int depth;
+
+        private static <R> R within(Action<R> action) throws DurabilityException {
+            Scope scope = SCOPE.get();
+            if (scope == null) {
+                scope = new Scope();
+                SCOPE.set(scope);
+            }
+            scope.depth++;
+            try {
+                return action.run();
+            } finally {
+                if (--scope.depth == 0) {
+                    SCOPE.remove();
+                }
+            }
+        }
+
+        @FunctionalInterface
+        private interface Action<R> {
+            R run() throws DurabilityException;
+        }
+    }
+
+    private static final class ContentStream extends FilterInputStream {
+        private final String reference;
+
+        private ContentStream(InputStream content, String reference) {
+            super(content);
+            this.reference = reference;
+        }
+    }
+
+    /**
+     * Setters of a builder class, resolved once per name and argument type the same way {@link MethodUtils} resolves
+     * them, and bound as method handles. Failures are reported as by reflective invocation.
+     */
+    private static final class BuilderBindings {
+        private static final MethodType SETTER = MethodType.methodType(Object.class, Object.class, Object.class);
+
+        private final Class<?> builderClass;
+        private final ConcurrentMap<Binding, Setter> setters = Maps.newConcurrentMap();
+
+        private BuilderBindings(Class<?> builderClass) {
+            this.builderClass = builderClass;
+        }
+
+        private static BuilderBindings of(Class<?> builderClass) {
+            return BINDINGS.computeIfAbsent(builderClass, BuilderBindings::new);
+        }
+
+        private void invoke(Object builder, String name, Object value) throws ReflectiveOperationException {
+            if (value == null) {
+                MethodUtils.invokeMethod(builder, name, value);
+                return;
+            }
+            Binding binding = new Binding(name, value.getClass());
+            this.setters.computeIfAbsent(binding, this::resolve).set(builder, value);
+        }
+
+        private Setter resolve(Binding binding) {
+            Method method = MethodUtils.getMatchingAccessibleMethod(this.builderClass, binding.name, binding.argumentType);
+            if (method == null) {
+                return (builder, value) -> {
+                    throw new NoSuchMethodException(String.format("No such accessible method: %s() on object: %s",
+                            binding.name, this.builderClass.getName()));
+                };
+            }
+            if (method.isVarArgs()) {
+                return (builder, value) -> MethodUtils.invokeMethod(builder, binding.name, value);
+            }
+            MethodHandle handle;
+            try {
+                handle = MethodHandles.lookup().unreflect(method).asType(SETTER);
+            } catch (IllegalAccessException e) {
+                return (builder, value) -> MethodUtils.invokeMethod(builder, binding.name, value);
+            }
+            return (builder, value) -> {
+                try {
+                    Object ignored = (Object) handle.invokeExact(builder, value);
+                } catch (Throwable e) {
+                    throw new InvocationTargetException(e);
+                }
+            };
+        }
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class Binding {
+        private final String name;
+        private final Class<?> argumentType;
+    }
+
+    @FunctionalInterface
+    private interface Setter {
+        void set(Object builder, Object value) throws ReflectiveOperationException;
+    }
+
+    /**
+     * Ordinals of types are their tags in binary format, hence new types are appended only.
+     */
     private enum DurabilityType {
-        INTEGER, FLOAT, DOUBLE, STRING, INSTANT, METADATA, BINARY, ARRAY
+        INTEGER, FLOAT, DOUBLE, STRING, INSTANT, METADATA, BINARY, ARRAY, LONG, BOOLEAN, CONTENT
+    }
+
+    /**
+     * Writes metadata in binary format. Name is written as varint of its index shifted left by one with lowest bit set
+     * if it has been written before, otherwise as varint of its length shifted left by one followed by its UTF-8 bytes.
+     */
+    private static final class BinaryWriter {
+        private final Map<String, Integer> names = Maps.newHashMap();
+        private byte[] buffer = new byte[256];
+        private int size;
+
+        private BinaryWriter() {
+            this.write(BinaryReader.MAGIC, 0, BinaryReader.MAGIC.length);
+        }
+
+        private void writeByte(int value) {
+            this.ensure(1);
+            this.buffer[this.size++] = (byte) value;
+        }
+
+        private void write(byte[] bytes, int offset, int length) {
+            this.ensure(length);
+            System.arraycopy(bytes, offset, this.buffer, this.size, length);
+            this.size += length;
+        }
+
+        private void writeVarInt(int value) {
+            this.writeVarLong(value & 0xffffffffL);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                this.writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            this.writeByte((int) value);
+        }
+
+        private void writeZigZag(long value) {
+            this.writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeFixed(long value, int bytes) {
+            for (int i = bytes - 1; i >= 0; i--) {
+                this.writeByte((int) (value >>> (i * 8)));
+            }
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            this.writeVarInt(bytes.length);
+            this.write(bytes, 0, bytes.length);
+        }
+
+        private void writeName(String name) {
+            Integer index = this.names.get(name);
+            if (index != null) {
+                this.writeVarInt(index << 1 | 1);
+                return;
+            }
+            this.names.put(name, this.names.size());
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            this.writeVarInt(bytes.length << 1);
+            this.write(bytes, 0, bytes.length);
+        }
+
+        private void ensure(int length) {
+            if (this.size + length > this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + length));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(this.buffer, this.size);
+        }
+    }
+
+    /**
+     * Reads metadata in JSON format token by token, building entries directly instead of a tree of JSON objects.
+     * Fields may come in any order, so value of an entry is read before its type is known. Object value is nested
+     * metadata and array value holds entries, any other is a plain value converted according to the type.
+     */
+    private static final class JsonReader {
+        private final JSONTokener tokener;
+
+        private JsonReader(Reader reader) {
+            this.tokener = new JSONTokener(reader);
+        }
+
+        private Metadata<?> readMetadata(Metadata<?> metadata) throws DurabilityException {
+            this.expect('{');
+            String builderClassName = null;
+            for (String field = this.nextField(true); field != null; field = this.nextField(false)) {
+                if ("builderClassName".equals(field)) {
+                    builderClassName = this.readString();
+                } else if ("parameters".equals(field)) {
+                    this.expect('{');
+                    for (String name = this.nextField(true); name != null; name = this.nextField(false)) {
+                        metadata.parameters.put(name, this.readEntry());
+                    }
+                } else {
+                    this.tokener.nextValue();
+                }
+            }
+            if (builderClassName == null) {
+                throw new DurabilityException("Metadata has no builder class name");
+            }
+            metadata.useBuilder(builderClassName);
+            return metadata;
+        }
+
+        private DurabilityEntry<?, ?> readEntry() throws DurabilityException {
+            this.expect('{');
+            DurabilityType type = null;
+            Object value = null;
+            String reference = null;
+            for (String field = this.nextField(true); field != null; field = this.nextField(false)) {
+                if ("type".equals(field)) {
+                    type = DurabilityType.valueOf(this.readString());
+                } else if ("value".equals(field)) {
+                    value = this.readValue();
+                } else if ("reference".equals(field)) {
+                    reference = this.readString();
+                } else {
+                    this.tokener.nextValue();
+                }
+            }
+            if (type == null || value == null) {
+                throw new DurabilityException(String.format("Entry without type or value %s", this.tokener));
+            }
+            if (type == DurabilityType.CONTENT) {
+                if (reference == null || !(value instanceof String)) {
+                    throw new DurabilityException(String.format("Content entry without hash or reference %s", this.tokener));
+                }
+                return new ContentEntry((String) value, reference);
+            }
+            return DurabilityEntry.fromJSON(type, value);
+        }
+
+        private Object readValue() throws DurabilityException {
+            char next = this.tokener.nextClean();
+            this.tokener.back();
+            if (next == '{') {
+                return this.readMetadata(new Metadata<>());
+            }
+            if (next == '[') {
+                this.expect('[');
+                List<DurabilityEntry<?, ?>> items = Lists.newArrayList();
+                for (boolean more = this.nextItem(true); more; more = this.nextItem(false)) {
+                    items.add(this.readEntry());
+                }
+                return items.toArray(DurabilityEntry[]::new);
+            }
+            return this.tokener.nextValue();
+        }
+
+        private String readString() {
+            Object value = this.tokener.nextValue();
+            if (!(value instanceof String)) {
+                throw this.tokener.syntaxError(String.format("Expected string instead of %s", value));
+            }
+            return (String) value;
+        }
+
+        /**
+         * @return name of the next field of current object, null at its end
+         */
+        private String nextField(boolean first) {
+            char next = this.tokener.nextClean();
+            if (next == '}') {
+                return null;
+            }
+            if (!first) {
+                if (next != ',') {
+                    throw this.tokener.syntaxError("Expected , or }");
+                }
+                next = this.tokener.nextClean();
+            }
+            if (next != '"') {
+                throw this.tokener.syntaxError("Expected field name");
+            }
+            String name = this.tokener.nextString('"');
+            this.expect(':');
+            return name;
+        }
+
+        /**
+         * @return whether current array has next item
+         */
+        private boolean nextItem(boolean first) {
+            char next = this.tokener.nextClean();
+            if (next == ']') {
+                return false;
+            }
+            if (!first && next != ',') {
+                throw this.tokener.syntaxError("Expected , or ]");
+            }
+            if (first) {
+                this.tokener.back();
+            }
+            return true;
+        }
+
+        private void expect(char expected) {
+            if (this.tokener.nextClean() != expected) {
+                throw this.tokener.syntaxError(String.format("Expected %s", expected));
+            }
+        }
+    }
+
+    /**
+     * Reads metadata written by {@link BinaryWriter}, collecting names in order of their first occurrence.
+     */
+    private static final class BinaryReader {
+        // zero byte never starts JSON document
+        private static final byte[] MAGIC = {0, 'm', 'd', 1};
+
+        private final byte[] bytes;
+        private final List<String> names = Lists.newArrayList();
+        private int position = MAGIC.length;
+
+        private BinaryReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private static boolean isBinary(byte[] bytes) {
+            return bytes.length >= MAGIC.length && Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+        }
+
+        private int readByte() throws DurabilityException {
+            if (this.position >= this.bytes.length) {
+                throw new DurabilityException(String.format("Unexpected end of metadata at %d", this.position));
+            }
+            return this.bytes[this.position++] & 0xff;
+        }
+
+        private int readVarInt() throws DurabilityException {
+            return (int) this.readVarLong();
+        }
+
+        private long readVarLong() throws DurabilityException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                int b = this.readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new DurabilityException(String.format("Malformed varint at %d", this.position));
+        }
+
+        /**
+         * Reads number of entries following it, each of which takes at least one byte, so that corrupted count is
+         * reported before anything is allocated for it.
+         */
+        private int readCount() throws DurabilityException {
+            int count = this.readVarInt();
+            if (count < 0 || count > this.bytes.length - this.position) {
+                throw new DurabilityException(String.format("Count %d exceeds metadata at %d", count, this.position));
+            }
+            return count;
+        }
+
+        private long readZigZag() throws DurabilityException {
+            long value = this.readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readFixed(int bytes) throws DurabilityException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = value << 8 | this.readByte();
+            }
+            return value;
+        }
+
+        private String readString() throws DurabilityException {
+            return this.readUtf8(this.readVarInt());
+        }
+
+        private String readName() throws DurabilityException {
+            int header = this.readVarInt();
+            if ((header & 1) == 1) {
+                int index = header >>> 1;
+                if (index >= this.names.size()) {
+                    throw new DurabilityException(String.format("Unknown name reference %d at %d", index, this.position));
+                }
+                return this.names.get(index);
+            }
+            String name = this.readUtf8(header >>> 1);
+            this.names.add(name);
+            return name;
+        }
+
+        private String readUtf8(int length) throws DurabilityException {
+            if (length < 0 || length > this.bytes.length - this.position) {
+                throw new DurabilityException(String.format("String of length %d exceeds metadata at %d", length, this.position));
+            }
+            String value = new String(this.bytes, this.position, length, StandardCharsets.UTF_8);
+            this.position += length;
+            return value;
+        }
     }
 
     @ToString(doNotUseGetters = true)
@@ -215,14 +804,25 @@ public class Metadata<T extends Durable<T>> implements Storable {
         public void collectHashes(Set<String> hashes) {
         }
 
+        protected void writeTo(BinaryWriter writer) {
+            writer.writeByte(this.getType().ordinal());
+            this.writeValueTo(writer);
+        }
+
+        protected abstract void writeValueTo(BinaryWriter writer);
+
         public static DurabilityEntry<?, ?> fromReal(Object value) throws DurabilityException {
             DurabilityEntry<?, ?> entry;
             if (value instanceof Integer) {
                 entry = new IntegerEntry((Integer) value);
+            } else if (value instanceof Long) {
+                entry = new LongEntry((Long) value);
             } else if (value instanceof Float) {
                 entry = new FloatEntry((Float) value);
             } else if (value instanceof Double) {
                 entry = new DoubleEntry((Double) value);
+            } else if (value instanceof Boolean) {
+                entry = new BooleanEntry((Boolean) value);
             } else if (value instanceof String) {
                 entry = new StringEntry((String) value);
             } else if (value instanceof Instant) {
@@ -252,23 +852,33 @@ public class Metadata<T extends Durable<T>> implements Storable {
                 switch (type) {
                     case INTEGER:
                         return new IntegerEntry((Integer) value);
+                    case LONG:
+                        if (value instanceof Integer) {
+                            return new LongEntry(((Integer) value).longValue());
+                        }
+                        return new LongEntry((Long) value);
                     case FLOAT:
                         if (value instanceof Integer) {
                             return new FloatEntry(((Integer) value).floatValue());
                         }
                         return new FloatEntry((Float) value);
                     case DOUBLE:
+                        if (value instanceof Integer) {
+                            return new DoubleEntry(((Integer) value).doubleValue());
+                        }
                         return new DoubleEntry((Double) value);
+                    case BOOLEAN:
+                        return new BooleanEntry((Boolean) value);
                     case STRING:
                         return new StringEntry((String) value);
                     case INSTANT:
                         return new InstantEntry((String) value);
                     case METADATA:
-                        return new DurableEntry<>((JSONObject) value);
+                        return new DurableEntry<>((Metadata<?>) value);
                     case BINARY:
                         return new BinaryEntry((String) value);
                     case ARRAY:
-                        return new ArrayEntry((JSONArray) value);
+                        return new ArrayEntry((DurabilityEntry<?, ?>[]) value);
                     default:
                         throw new UnexpectedTypeException(type, type.getClass().getName());
                 }
@@ -276,6 +886,44 @@ public class Metadata<T extends Durable<T>> implements Storable {
                 throw new DurabilityException(String.format("Value %s is of unexpected type for stored type %s", value, type), ccex);
             }
         }
+
+        public static DurabilityEntry<?, ?> fromBinary(BinaryReader reader) throws DurabilityException {
+            int tag = reader.readByte();
+            if (tag >= DurabilityType.values().length) {
+                throw new DurabilityException(String.format("Unknown type tag %d", tag));
+            }
+            DurabilityType type = DurabilityType.values()[tag];
+            switch (type) {
+                case INTEGER:
+                    return new IntegerEntry((int) reader.readZigZag());
+                case LONG:
+                    return new LongEntry(reader.readZigZag());
+                case FLOAT:
+                    return new FloatEntry(Float.intBitsToFloat((int) reader.readFixed(Integer.BYTES)));
+                case DOUBLE:
+                    return new DoubleEntry(Double.longBitsToDouble(reader.readFixed(Long.BYTES)));
+                case BOOLEAN:
+                    return new BooleanEntry(reader.readByte() != 0);
+                case STRING:
+                    return new StringEntry(reader.readString());
+                case INSTANT:
+                    return new InstantEntry(Instant.ofEpochSecond(reader.readZigZag(), reader.readVarInt()));
+                case METADATA:
+                    return new DurableEntry<>(new Metadata<>().fromBinary(reader));
+                case BINARY:
+                    return new BinaryEntry(reader.readString());
+                case CONTENT:
+                    return new ContentEntry(reader.readString(), reader.readString());
+                case ARRAY:
+                    DurabilityEntry<?, ?>[] items = new DurabilityEntry[reader.readCount()];
+                    for (int i = 0; i < items.length; i++) {
+                        items[i] = DurabilityEntry.fromBinary(reader);
+                    }
+                    return new ArrayEntry(items);
+                default:
+                    throw new UnexpectedTypeException(type, type.getClass().getName());
+            }
+        }
     }
 
     private static class IntegerEntry extends DurabilityEntry<Integer, Integer> {
@@ -288,6 +936,45 @@ public class Metadata<T extends Durable<T>> implements Storable {
             return DurabilityType.INTEGER;
         }
 
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeZigZag(this.value);
+        }
+
+    }
+
+    private static class LongEntry extends DurabilityEntry<Long, Long> {
+        protected LongEntry(Long value) {
+            super(value);
+        }
+
+        @Override
+        public DurabilityType getType() {
+            return DurabilityType.LONG;
+        }
+
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeZigZag(this.value);
+        }
+
+    }
+
+    private static class BooleanEntry extends DurabilityEntry<Boolean, Boolean> {
+        protected BooleanEntry(Boolean value) {
+            super(value);
+        }
+
+        @Override
+        public DurabilityType getType() {
+            return DurabilityType.BOOLEAN;
+        }
+
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeByte(this.value ? 1 : 0);
+        }
+
     }
 
     private static class FloatEntry extends DurabilityEntry<Float, Float> {
@@ -300,6 +987,11 @@ public class Metadata<T extends Durable<T>> implements Storable {
             return DurabilityType.FLOAT;
         }
 
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeFixed(Float.floatToIntBits(this.value), Integer.BYTES);
+        }
+
     }
 
     private static class DoubleEntry extends DurabilityEntry<Double, Double> {
@@ -312,6 +1004,11 @@ public class Metadata<T extends Durable<T>> implements Storable {
             return DurabilityType.DOUBLE;
         }
 
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeFixed(Double.doubleToLongBits(this.value), Long.BYTES);
+        }
+
     }
 
     private static class StringEntry extends DurabilityEntry<String, String> {
@@ -324,6 +1021,11 @@ public class Metadata<T extends Durable<T>> implements Storable {
             return DurabilityType.STRING;
         }
 
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeString(this.value);
+        }
+
     }
 
     private static class InstantEntry extends DurabilityEntry<String, Instant> {
@@ -341,6 +1043,13 @@ public class Metadata<T extends Durable<T>> implements Storable {
             return DurabilityType.INSTANT;
         }
 
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            Instant instant = Instant.parse(this.value);
+            writer.writeZigZag(instant.getEpochSecond());
+            writer.writeVarInt(instant.getNano());
+        }
+
         public Instant getValue() throws ConversionException {
             try {
                 return Instant.parse(value);
@@ -360,15 +1069,16 @@ public class Metadata<T extends Durable<T>> implements Storable {
             super(value);
         }
 
-        public DurableEntry(JSONObject value) throws DurabilityException {
-            this(new Metadata<T>().fromJSON(value));
-        }
-
         @Override
         public DurabilityType getType() {
             return DurabilityType.METADATA;
         }
 
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            this.value.writeTo(writer);
+        }
+
         public T getValue() throws DurabilityException {
             return this.value.getDurable();
         }
@@ -416,6 +1126,21 @@ public class Metadata<T extends Durable<T>> implements Storable {
             this.calculateHash(new ByteArrayInputStream(value));
         }
 
+        private static BinaryEntry write(ContentWriter writer) throws DurabilityException {
+            Path tempFile = null;
+            try {
+                tempFile = Files.createTempFile("mlops4j-content", ".bin");
+                writer.write(tempFile.toFile());
+                return new BinaryEntry(tempFile);
+            } catch (IOException e) {
+                throw new DurabilityException("Cannot write content", e);
+            } finally {
+                if (tempFile != null) {
+                    FileUtils.deleteQuietly(tempFile.toFile());
+                }
+            }
+        }
+
         private void calculateHash(InputStream value) throws DurabilityException {
             Hasher hasher = Hashing.sha256().newHasher();
             byte[] buffer = new byte[8196];
@@ -449,6 +1174,11 @@ public class Metadata<T extends Durable<T>> implements Storable {
             return DurabilityType.BINARY;
         }
 
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeString(this.value);
+        }
+
         @Override
         public InputStream getValue() throws DurabilityException {
             File file = Path.of(FileUtils.getTempDirectoryPath(), this.value).toFile();
@@ -464,6 +1194,40 @@ public class Metadata<T extends Durable<T>> implements Storable {
         }
     }
 
+    /**
+     * Content written by {@link #withContent(String, Object, ContentWriter)} within a scope. Reference identifies its
+     * representation, so that content is restored once per representation instead of once per hash.
+     */
+    private static class ContentEntry extends BinaryEntry {
+        private final String reference;
+
+        private ContentEntry(String hash, String reference) {
+            super(hash);
+            this.reference = reference;
+        }
+
+        @Override
+        public DurabilityType getType() {
+            return DurabilityType.CONTENT;
+        }
+
+        @Override
+        public JSONObject asJson() {
+            return super.asJson().put("reference", this.reference);
+        }
+
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeString(this.value);
+            writer.writeString(this.reference);
+        }
+
+        @Override
+        public InputStream getValue() throws DurabilityException {
+            return new ContentStream(super.getValue(), this.reference);
+        }
+    }
+
     private static class ArrayEntry extends DurabilityEntry<DurabilityEntry[], Collection> {
 
         protected ArrayEntry(Iterable<?> collection) throws DurabilityException {
@@ -475,15 +1239,8 @@ public class Metadata<T extends Durable<T>> implements Storable {
             this.value = result.toArray(DurabilityEntry[]::new);
         }
 
-        protected ArrayEntry(JSONArray collection) throws DurabilityException {
-            super(null);
-            List<DurabilityEntry<?, ?>> result = Lists.newLinkedList();
-            for (Object item : collection) {
-                DurabilityType type = ((JSONObject) item).getEnum(DurabilityType.class, "type");
-                Object value = ((JSONObject) item).get("value");
-                result.add(DurabilityEntry.fromJSON(type, value));
-            }
-            this.value = result.toArray(DurabilityEntry[]::new);
+        protected ArrayEntry(DurabilityEntry<?, ?>[] items) {
+            super(items);
         }
 
         protected ArrayEntry(Object[] array) throws DurabilityException {
@@ -500,6 +1257,14 @@ public class Metadata<T extends Durable<T>> implements Storable {
             return DurabilityType.ARRAY;
         }
 
+        @Override
+        protected void writeValueTo(BinaryWriter writer) {
+            writer.writeVarInt(this.value.length);
+            for (DurabilityEntry<?, ?> item : this.value) {
+                item.writeTo(writer);
+            }
+        }
+
         @Override
         public Collection getValue() throws DurabilityException {
             List real = Lists.newLinkedList();
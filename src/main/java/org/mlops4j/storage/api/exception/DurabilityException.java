@@ -17,6 +17,8 @@
 
 package org.mlops4j.storage.api.exception;
 
+import java.util.concurrent.CompletionException;
+
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
  */
@@ -29,4 +31,15 @@ public class DurabilityException extends Exception {
     public DurabilityException(String message, Throwable cause) {
         super(message, cause);
     }
+
+    /**
+     * Recovers exception, which failed asynchronous storage operation, from completion wrapper of a future.
+     */
+    public static DurabilityException of(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause instanceof DurabilityException) {
+            return (DurabilityException) cause;
+        }
+        return new DurabilityException("Asynchronous storage operation failed", cause);
+    }
 }
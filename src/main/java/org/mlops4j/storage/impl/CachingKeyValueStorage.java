@@ -0,0 +1,409 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.IOUtils;
+import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Write-through cache of values of any other storage, bounded by total number of cached bytes and evicting least
+ * recently used values first.
+ * <p>
+ * Only keys under cached prefixes are kept, so keys, which may be changed by other writers of the same underlying
+ * storage, can be left out. Keys under immutable prefixes (content addressed blobs) are never rewritten once cached.
+ * Streamed values are not cached on write. Streamed reads are cached only if value is not larger than configured
+ * maximal value size, larger values are passed through without being materialized.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public class CachingKeyValueStorage implements KeyValueStorage {
+    private final KeyValueStorage storage;
+    private final Long maximumWeight;
+    private final Integer maximumValueSize;
+    private final List<String> cachedPrefixes;
+    private final List<String> immutablePrefixes;
+    private final Cache<String, byte[]> cache;
+
+    private CachingKeyValueStorage(KeyValueStorage storage, Long maximumWeight, Integer maximumValueSize,
+                                   List<String> cachedPrefixes, List<String> immutablePrefixes) {
+        this.storage = storage;
+        this.maximumWeight = maximumWeight;
+        this.maximumValueSize = maximumValueSize;
+        this.cachedPrefixes = cachedPrefixes;
+        this.immutablePrefixes = immutablePrefixes;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String key, byte[] value) -> value.length)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws DurabilityException {
+        if (this.isImmutable(key) && this.cache.asMap().containsKey(key)) {
+            return;
+        }
+        this.storage.put(key, value);
+        if (this.isCached(key)) {
+            this.cache.put(key, value);
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        if (this.isImmutable(key) && this.cache.asMap().containsKey(key)) {
+            return;
+        }
+        this.storage.put(key, value);
+        this.cache.invalidate(key);
+    }
+
+    @Override
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        Map<String, byte[]> changed = Maps.filterKeys(values,
+                key -> !this.isImmutable(key) || !this.cache.asMap().containsKey(key));
+        if (changed.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> written = Maps.newHashMap(changed);
+        this.storage.putAll(written);
+        written.forEach((key, value) -> {
+            if (this.isCached(key)) {
+                this.cache.put(key, value);
+            }
+        });
+    }
+
+    @Override
+    public Optional<byte[]> get(String key) throws DurabilityException {
+        byte[] cached = this.cache.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<byte[]> value = this.storage.get(key);
+        if (value.isPresent() && this.isCached(key)) {
+            this.cache.put(key, value.get());
+        }
+        return value;
+    }
+
+    /**
+     * Serves cached values directly and reads the remaining ones from underlying storage in single batch.
+     */
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) throws DurabilityException {
+        Map<String, byte[]> result = Maps.newHashMapWithExpectedSize(keys.size());
+        List<String> missing = Lists.newArrayList();
+        for (String key : keys) {
+            byte[] cached = this.cache.getIfPresent(key);
+            if (cached != null) {
+                result.put(key, cached);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, byte[]> loaded = this.storage.getAll(missing);
+            loaded.forEach((key, value) -> {
+                if (this.isCached(key)) {
+                    this.cache.put(key, value);
+                }
+            });
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    @Override
+    public void delete(String key) throws DurabilityException {
+        this.storage.delete(key);
+        this.cache.invalidate(key);
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) throws DurabilityException {
+        byte[] cached = this.cache.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(new ByteArrayInputStream(cached));
+        }
+        Optional<InputStream> stream = this.storage.getStream(key);
+        if (stream.isEmpty() || !this.isCached(key)) {
+            return stream;
+        }
+        InputStream value = stream.get();
+        try {
+            byte[] head = value.readNBytes(this.maximumValueSize + 1);
+            if (head.length <= this.maximumValueSize) {
+                value.close();
+                this.cache.put(key, head);
+                return Optional.of(new ByteArrayInputStream(head));
+            }
+            return Optional.of(new SequenceInputStream(new ByteArrayInputStream(head), value));
+        } catch (IOException e) {
+            IOUtils.closeQuietly(value);
+            throw new DurabilityException(String.format("Cannot read stream of key %s", key), e);
+        }
+    }
+
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) throws DurabilityException {
+        byte[] cached = this.cache.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(ByteBuffer.wrap(cached).asReadOnlyBuffer());
+        }
+        return this.storage.getBuffer(key);
+    }
+
+    @Override
+    public Iterator<String> list() throws DurabilityException {
+        return this.storage.list();
+    }
+
+    @Override
+    public Iterator<String> list(String prefix) throws DurabilityException {
+        return this.storage.list(prefix);
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) throws DurabilityException {
+        return this.storage.list(prefix, startAfter, limit);
+    }
+
+    /**
+     * Scans bypass the cache, so that one pass over many entries does not evict the frequently read ones.
+     */
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) throws DurabilityException {
+        return this.storage.scan(prefix);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) throws DurabilityException {
+        return this.storage.scanValues(prefix);
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new AsyncCache(this.storage.async());
+    }
+
+    public long getHitCount() {
+        return this.cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return this.cache.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return this.cache.stats().evictionCount();
+    }
+
+    private boolean isCached(String key) {
+        return this.cachedPrefixes.stream().anyMatch(key::startsWith);
+    }
+
+    private boolean isImmutable(String key) {
+        return this.immutablePrefixes.stream().anyMatch(key::startsWith);
+    }
+
+    /**
+     * Serves cache hits with completed futures and passes everything else to asynchronous facet of underlying storage.
+     */
+    private class AsyncCache implements AsyncKeyValueStorage {
+        private final AsyncKeyValueStorage storage;
+
+        private AsyncCache(AsyncKeyValueStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] value) {
+            if (isImmutable(key) && cache.asMap().containsKey(key)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return this.storage.put(key, value).thenRun(() -> {
+                if (isCached(key)) {
+                    cache.put(key, value);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, InputStream value) {
+            if (isImmutable(key) && cache.asMap().containsKey(key)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return this.storage.put(key, value).thenRun(() -> cache.invalidate(key));
+        }
+
+        @Override
+        public CompletableFuture<Void> putAll(Map<String, byte[]> values) {
+            Map<String, byte[]> written = Maps.newHashMap(Maps.filterKeys(values,
+                    key -> !isImmutable(key) || !cache.asMap().containsKey(key)));
+            if (written.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return this.storage.putAll(written).thenRun(() -> written.forEach((key, value) -> {
+                if (isCached(key)) {
+                    cache.put(key, value);
+                }
+            }));
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> get(String key) {
+            byte[] cached = cache.getIfPresent(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(Optional.of(cached));
+            }
+            return this.storage.get(key).thenApply(value -> {
+                if (value.isPresent() && isCached(key)) {
+                    cache.put(key, value.get());
+                }
+                return value;
+            });
+        }
+
+        @Override
+        public CompletableFuture<Map<String, byte[]>> getAll(Collection<String> keys) {
+            Map<String, byte[]> result = Maps.newHashMapWithExpectedSize(keys.size());
+            List<String> missing = Lists.newArrayList();
+            for (String key : keys) {
+                byte[] cached = cache.getIfPresent(key);
+                if (cached != null) {
+                    result.put(key, cached);
+                } else {
+                    missing.add(key);
+                }
+            }
+            if (missing.isEmpty()) {
+                return CompletableFuture.completedFuture(result);
+            }
+            return this.storage.getAll(missing).thenApply(loaded -> {
+                loaded.forEach((key, value) -> {
+                    if (isCached(key)) {
+                        cache.put(key, value);
+                    }
+                });
+                result.putAll(loaded);
+                return result;
+            });
+        }
+
+        @Override
+        public Executor executor() {
+            return this.storage.executor();
+        }
+    }
+
+    @Override
+    public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
+        return new Metadata<>(this)
+                .withParameter("storage", this.storage)
+                .withParameter("maximumWeight", this.maximumWeight)
+                .withParameter("maximumValueSize", this.maximumValueSize)
+                .withParameter("cachedPrefixes", this.cachedPrefixes)
+                .withParameter("immutablePrefixes", this.immutablePrefixes);
+    }
+
+    @Override
+    public ComponentBuilder<? super KeyValueStorage> getBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder implements ComponentBuilder<KeyValueStorage> {
+        private KeyValueStorage storage;
+        private Long maximumWeight = 256L * 1024 * 1024;
+        private Integer maximumValueSize = 16 * 1024 * 1024;
+        private final List<String> cachedPrefixes = Lists.newArrayList("");
+        private final List<String> immutablePrefixes = Lists.newArrayList("content/");
+
+        @Override
+        public KeyValueStorage build() {
+            Preconditions.checkNotNull(storage, "Cached storage must be set");
+            Preconditions.checkArgument(maximumWeight > 0, "Maximum weight must be positive");
+            Preconditions.checkArgument(maximumValueSize >= 0, "Maximum value size cannot be negative");
+            return new CachingKeyValueStorage(storage, maximumWeight, maximumValueSize, Lists.newArrayList(cachedPrefixes),
+                    Lists.newArrayList(immutablePrefixes));
+        }
+
+        public Builder storage(KeyValueStorage storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        /**
+         * Maximal number of bytes of values kept in cache.
+         */
+        public Builder maximumWeight(Long maximumWeight) {
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Maximal size of value cached when it is read as a stream.
+         */
+        public Builder maximumValueSize(Integer maximumValueSize) {
+            this.maximumValueSize = maximumValueSize;
+            return this;
+        }
+
+        /**
+         * Prefixes of keys, which are cached. By default all keys are.
+         */
+        public Builder cachedPrefixes(Collection<String> cachedPrefixes) {
+            this.cachedPrefixes.clear();
+            this.cachedPrefixes.addAll(cachedPrefixes);
+            return this;
+        }
+
+        /**
+         * Prefixes of keys, whose values never change once written. By default it is content addressed
+         * {@code content/}.
+         */
+        public Builder immutablePrefixes(Collection<String> immutablePrefixes) {
+            this.immutablePrefixes.clear();
+            this.immutablePrefixes.addAll(immutablePrefixes);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.base.Preconditions;
+import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Storage sharing a single read of underlying storage among concurrent readers of the same key. Readers get the same
+ * array, which must not be modified. Streams and buffers are not shareable, so they are read separately, as well as
+ * batches. Reads starting after a write of the key do not join reads started before it.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public class CoalescingKeyValueStorage implements KeyValueStorage {
+    private final KeyValueStorage storage;
+    private final SingleFlight<String, Optional<byte[]>> reads = new SingleFlight<>();
+
+    private CoalescingKeyValueStorage(KeyValueStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws DurabilityException {
+        this.storage.put(key, value);
+        this.reads.forget(key);
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        this.storage.put(key, value);
+        this.reads.forget(key);
+    }
+
+    @Override
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        this.storage.putAll(values);
+        values.keySet().forEach(this.reads::forget);
+    }
+
+    @Override
+    public Optional<byte[]> get(String key) throws DurabilityException {
+        return this.reads.load(key, () -> this.storage.get(key));
+    }
+
+    @Override
+    public void delete(String key) throws DurabilityException {
+        this.storage.delete(key);
+        this.reads.forget(key);
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) throws DurabilityException {
+        return this.storage.getAll(keys);
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) throws DurabilityException {
+        return this.storage.getStream(key);
+    }
+
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) throws DurabilityException {
+        return this.storage.getBuffer(key);
+    }
+
+    @Override
+    public Iterator<String> list() throws DurabilityException {
+        return this.storage.list();
+    }
+
+    @Override
+    public Iterator<String> list(String prefix) throws DurabilityException {
+        return this.storage.list(prefix);
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) throws DurabilityException {
+        return this.storage.list(prefix, startAfter, limit);
+    }
+
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) throws DurabilityException {
+        return this.storage.scan(prefix);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) throws DurabilityException {
+        return this.storage.scanValues(prefix);
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new AsyncCoalescing(this.storage.async());
+    }
+
+    /**
+     * @return number of reads passed to underlying storage
+     */
+    public long getLoadCount() {
+        return this.reads.getLoadCount();
+    }
+
+    /**
+     * @return number of reads served by a read of another reader
+     */
+    public long getDeduplicatedCount() {
+        return this.reads.getDeduplicatedCount();
+    }
+
+    /**
+     * Shares in-flight reads with blocking readers as well.
+     */
+    private class AsyncCoalescing implements AsyncKeyValueStorage {
+        private final AsyncKeyValueStorage storage;
+
+        private AsyncCoalescing(AsyncKeyValueStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] value) {
+            return this.storage.put(key, value).thenRun(() -> reads.forget(key));
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, InputStream value) {
+            return this.storage.put(key, value).thenRun(() -> reads.forget(key));
+        }
+
+        @Override
+        public CompletableFuture<Void> putAll(Map<String, byte[]> values) {
+            return this.storage.putAll(values).thenRun(() -> values.keySet().forEach(reads::forget));
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> get(String key) {
+            return reads.loadAsync(key, () -> this.storage.get(key));
+        }
+
+        @Override
+        public CompletableFuture<Map<String, byte[]>> getAll(Collection<String> keys) {
+            return this.storage.getAll(keys);
+        }
+
+        @Override
+        public Executor executor() {
+            return this.storage.executor();
+        }
+    }
+
+    @Override
+    public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
+        return new Metadata<>(this).withParameter("storage", this.storage);
+    }
+
+    @Override
+    public ComponentBuilder<? super KeyValueStorage> getBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder implements ComponentBuilder<KeyValueStorage> {
+        private KeyValueStorage storage;
+
+        @Override
+        public KeyValueStorage build() {
+            Preconditions.checkNotNull(storage, "Coalesced storage must be set");
+            return new CoalescingKeyValueStorage(storage);
+        }
+
+        public Builder storage(KeyValueStorage storage) {
+            this.storage = storage;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.IOUtils;
+import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.api.exception.StreamException;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses values of any other storage with codec selected by the longest matching key prefix. Compressed values
+ * start with a header of {@link #MAGIC} followed by a codec byte. Values written raw, because their prefix is not
+ * compressed or because they did not get smaller, are stored as they are, so values put into underlying storage
+ * directly stay readable unless they start with the header themselves. Raw values starting with {@link #MAGIC} are
+ * written with a raw header.
+ * <p>
+ * Streamed values are compressed if the first {@value #SAMPLE_SIZE} bytes of them shrink, without materializing the
+ * rest of the stream.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public class CompressingKeyValueStorage implements KeyValueStorage {
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    /**
+     * Starts with a byte, which cannot start UTF-8 text, hence neither JSON nor any other textual value.
+     */
+    private static final byte[] MAGIC = {(byte) 0xc0, 'm', 'z'};
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+
+    private final KeyValueStorage storage;
+    private final Map<String, Codec> codecs;
+    private final Integer level;
+
+    private CompressingKeyValueStorage(KeyValueStorage storage, Map<String, Codec> codecs, Integer level) {
+        this.storage = storage;
+        this.level = level;
+        this.codecs = new LinkedHashMap<>();
+        codecs.keySet().stream()
+                .sorted(Comparator.comparing(String::length).reversed())
+                .forEach(prefix -> this.codecs.put(prefix, codecs.get(prefix)));
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws DurabilityException {
+        this.storage.put(key, this.encode(key, value));
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        try {
+            byte[] sample = value.readNBytes(SAMPLE_SIZE);
+            InputStream content = new SequenceInputStream(new ByteArrayInputStream(sample), value);
+            byte[] encoded = this.encode(key, sample);
+            if (Codec.of(encoded, encoded.length).orElse(Codec.RAW) != Codec.DEFLATE) {
+                this.storage.put(key, startsWithMagic(sample, sample.length)
+                        ? new SequenceInputStream(new ByteArrayInputStream(Codec.RAW.header()), content) : content);
+                return;
+            }
+            Deflater deflater = new Deflater(this.level);
+            try {
+                this.storage.put(key, new SequenceInputStream(new ByteArrayInputStream(Codec.DEFLATE.header()),
+                        new DeflaterInputStream(content, deflater)));
+            } finally {
+                deflater.end();
+            }
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot read stream for key %s", key), e);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        Map<String, byte[]> encoded = Maps.newHashMapWithExpectedSize(values.size());
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            encoded.put(entry.getKey(), this.encode(entry.getKey(), entry.getValue()));
+        }
+        this.storage.putAll(encoded);
+    }
+
+    @Override
+    public Optional<byte[]> get(String key) throws DurabilityException {
+        Optional<byte[]> value = this.storage.get(key);
+        return value.isPresent() ? Optional.of(this.decode(key, value.get())) : Optional.empty();
+    }
+
+    @Override
+    public void delete(String key) throws DurabilityException {
+        this.storage.delete(key);
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) throws DurabilityException {
+        Map<String, byte[]> values = this.storage.getAll(keys);
+        Map<String, byte[]> decoded = Maps.newHashMapWithExpectedSize(values.size());
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            decoded.put(entry.getKey(), this.decode(entry.getKey(), entry.getValue()));
+        }
+        return decoded;
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) throws DurabilityException {
+        Optional<InputStream> stream = this.storage.getStream(key);
+        if (stream.isEmpty()) {
+            return stream;
+        }
+        InputStream value = stream.get();
+        try {
+            byte[] head = value.readNBytes(HEADER_SIZE);
+            Optional<Codec> codec = Codec.of(head, head.length);
+            if (codec.isEmpty()) {
+                return Optional.of(new SequenceInputStream(new ByteArrayInputStream(head), value));
+            }
+            return Optional.of(codec.get() == Codec.DEFLATE ? new InflaterInputStream(value) : value);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(value);
+            throw new DurabilityException(String.format("Cannot read stream of key %s", key), e);
+        }
+    }
+
+    /**
+     * Raw values are returned as a view of underlying buffer past the header if any, compressed ones are inflated to
+     * heap.
+     */
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) throws DurabilityException {
+        Optional<ByteBuffer> buffer = this.storage.getBuffer(key);
+        if (buffer.isEmpty()) {
+            return buffer;
+        }
+        ByteBuffer value = buffer.get();
+        byte[] head = new byte[Math.min(HEADER_SIZE, value.remaining())];
+        value.duplicate().get(head);
+        Optional<Codec> codec = Codec.of(head, head.length);
+        if (codec.isEmpty()) {
+            return Optional.of(value.asReadOnlyBuffer());
+        }
+        if (codec.get() == Codec.RAW) {
+            value.position(value.position() + HEADER_SIZE);
+            return Optional.of(value.slice().asReadOnlyBuffer());
+        }
+        byte[] content = new byte[value.remaining()];
+        value.get(content);
+        return Optional.of(ByteBuffer.wrap(this.decode(key, content)).asReadOnlyBuffer());
+    }
+
+    @Override
+    public Iterator<String> list() throws DurabilityException {
+        return this.storage.list();
+    }
+
+    @Override
+    public Iterator<String> list(String prefix) throws DurabilityException {
+        return this.storage.list(prefix);
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) throws DurabilityException {
+        return this.storage.list(prefix, startAfter, limit);
+    }
+
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) throws DurabilityException {
+        String namespace = prefix.isEmpty() ? prefix : prefix + "/";
+        return this.storage.scan(prefix).map(entry -> {
+            try {
+                return Maps.immutableEntry(entry.getKey(), this.decode(namespace + entry.getKey(), entry.getValue()));
+            } catch (DurabilityException e) {
+                throw new StreamException(e);
+            }
+        });
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) throws DurabilityException {
+        return this.scan(prefix).map(Map.Entry::getValue);
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new AsyncCompression(this.storage.async());
+    }
+
+    private Codec codecOf(String key) {
+        return this.codecs.entrySet().stream()
+                .filter(entry -> key.startsWith(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse(Codec.RAW);
+    }
+
+    /**
+     * Compressed value is kept only if it is smaller than the raw one, including header.
+     */
+    private byte[] encode(String key, byte[] value) {
+        if (this.codecOf(key) == Codec.DEFLATE && value.length > HEADER_SIZE) {
+            Deflater deflater = new Deflater(this.level);
+            try {
+                deflater.setInput(value);
+                deflater.finish();
+                byte[] compressed = new byte[value.length];
+                System.arraycopy(Codec.DEFLATE.header(), 0, compressed, 0, HEADER_SIZE);
+                int length = HEADER_SIZE;
+                while (!deflater.finished() && length < compressed.length) {
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                if (deflater.finished()) {
+                    return Arrays.copyOf(compressed, length);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        if (!startsWithMagic(value, value.length)) {
+            return value;
+        }
+        byte[] raw = new byte[value.length + HEADER_SIZE];
+        System.arraycopy(Codec.RAW.header(), 0, raw, 0, HEADER_SIZE);
+        System.arraycopy(value, 0, raw, HEADER_SIZE, value.length);
+        return raw;
+    }
+
+    private byte[] decode(String key, byte[] value) throws DurabilityException {
+        Optional<Codec> codec = Codec.of(value, value.length);
+        if (codec.isEmpty()) {
+            return value;
+        }
+        if (codec.get() == Codec.RAW) {
+            return Arrays.copyOfRange(value, HEADER_SIZE, value.length);
+        }
+        try (InputStream content = new InflaterInputStream(new ByteArrayInputStream(value, HEADER_SIZE, value.length - HEADER_SIZE))) {
+            return content.readAllBytes();
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot inflate value of key %s", key), e);
+        }
+    }
+
+    /**
+     * Compresses values on calling thread, as it is not I/O, and leaves storing them to underlying asynchronous facet.
+     * Streams are sampled before they are written, so they are handled on executor of underlying storage.
+     */
+    private class AsyncCompression implements AsyncKeyValueStorage {
+        private final AsyncKeyValueStorage storage;
+
+        private AsyncCompression(AsyncKeyValueStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] value) {
+            return this.storage.put(key, encode(key, value));
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, InputStream value) {
+            return new ExecutorAsyncKeyValueStorage(CompressingKeyValueStorage.this, this.storage.executor()).put(key, value);
+        }
+
+        @Override
+        public CompletableFuture<Void> putAll(Map<String, byte[]> values) {
+            Map<String, byte[]> encoded = Maps.newHashMapWithExpectedSize(values.size());
+            values.forEach((key, value) -> encoded.put(key, encode(key, value)));
+            return this.storage.putAll(encoded);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> get(String key) {
+            return this.storage.get(key).thenApply(value -> {
+                try {
+                    return value.isPresent() ? Optional.of(decode(key, value.get())) : Optional.empty();
+                } catch (DurabilityException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Map<String, byte[]>> getAll(Collection<String> keys) {
+            return this.storage.getAll(keys).thenApply(values -> {
+                Map<String, byte[]> decoded = Maps.newHashMapWithExpectedSize(values.size());
+                for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                    try {
+                        decoded.put(entry.getKey(), decode(entry.getKey(), entry.getValue()));
+                    } catch (DurabilityException e) {
+                        throw new CompletionException(e);
+                    }
+                }
+                return decoded;
+            });
+        }
+
+        @Override
+        public Executor executor() {
+            return this.storage.executor();
+        }
+    }
+
+    @Override
+    public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
+        List<String> codecs = Lists.newArrayList();
+        this.codecs.forEach((prefix, codec) -> codecs.add(prefix + "=" + codec.name()));
+        return new Metadata<>(this)
+                .withParameter("storage", this.storage)
+                .withParameter("codecs", codecs)
+                .withParameter("level", this.level);
+    }
+
+    @Override
+    public ComponentBuilder<? super KeyValueStorage> getBuilder() {
+        return new Builder();
+    }
+
+    public enum Codec {
+        RAW(0), DEFLATE(1);
+
+        private final byte header;
+
+        Codec(int header) {
+            this.header = (byte) header;
+        }
+
+        private byte[] header() {
+            byte[] header = Arrays.copyOf(MAGIC, HEADER_SIZE);
+            header[MAGIC.length] = this.header;
+            return header;
+        }
+
+        /**
+         * @return codec of value starting with given bytes, empty for value stored without header
+         */
+        private static Optional<Codec> of(byte[] value, int length) {
+            if (length < HEADER_SIZE || !startsWithMagic(value, length)) {
+                return Optional.empty();
+            }
+            for (Codec codec : values()) {
+                if (codec.header == value[MAGIC.length]) {
+                    return Optional.of(codec);
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    private static boolean startsWithMagic(byte[] value, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (value[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class Builder implements ComponentBuilder<KeyValueStorage> {
+        private KeyValueStorage storage;
+        private final Map<String, Codec> codecs = Maps.newHashMap(Map.of("", Codec.DEFLATE, "content/", Codec.RAW));
+        private Integer level = Deflater.DEFAULT_COMPRESSION;
+
+        @Override
+        public KeyValueStorage build() {
+            Preconditions.checkNotNull(storage, "Compressed storage must be set");
+            Preconditions.checkArgument(level >= Deflater.DEFAULT_COMPRESSION && level <= Deflater.BEST_COMPRESSION,
+                    "Compression level must be between %s and %s", Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION);
+            return new CompressingKeyValueStorage(storage, codecs, level);
+        }
+
+        public Builder storage(KeyValueStorage storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        /**
+         * Codecs of key prefixes, the longest matching prefix wins. By default everything is deflated except content
+         * addressed {@code content/} blobs, which are serialized models already dense.
+         */
+        public Builder codec(String prefix, Codec codec) {
+            this.codecs.put(prefix, codec);
+            return this;
+        }
+
+        /**
+         * Codecs of key prefixes given as {@code prefix=CODEC}, replacing the default ones.
+         */
+        public Builder codecs(Collection<String> codecs) {
+            this.codecs.clear();
+            for (String codec : codecs) {
+                int separator = codec.lastIndexOf('=');
+                Preconditions.checkArgument(separator >= 0, "Codec %s is not in prefix=CODEC form", codec);
+                this.codecs.put(codec.substring(0, separator), Codec.valueOf(codec.substring(separator + 1)));
+            }
+            return this;
+        }
+
+        /**
+         * Deflate compression level, from 0 to 9 or -1 for the default one.
+         */
+        public Builder level(Integer level) {
+            this.level = level;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous facet running blocking operations of a storage on given executor. Storages, which do not block on I/O,
+ * use direct executor, so returned futures are already completed.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+class ExecutorAsyncKeyValueStorage implements AsyncKeyValueStorage {
+    private final KeyValueStorage storage;
+    private final Executor executor;
+
+    ExecutorAsyncKeyValueStorage(KeyValueStorage storage, Executor executor) {
+        this.storage = storage;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, byte[] value) {
+        return this.call(() -> {
+            this.storage.put(key, value);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, InputStream value) {
+        return this.call(() -> {
+            this.storage.put(key, value);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAll(Map<String, byte[]> values) {
+        return this.call(() -> {
+            this.storage.putAll(values);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> get(String key) {
+        return this.call(() -> this.storage.get(key));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, byte[]>> getAll(Collection<String> keys) {
+        return this.call(() -> this.storage.getAll(keys));
+    }
+
+    @Override
+    public Executor executor() {
+        return this.executor;
+    }
+
+    private <T> CompletableFuture<T> call(StorageCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        this.executor.execute(() -> {
+            try {
+                result.complete(call.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface StorageCall<T> {
+        T call() throws DurabilityException;
+    }
+}
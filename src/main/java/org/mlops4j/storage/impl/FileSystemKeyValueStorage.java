@@ -18,54 +18,268 @@
 package org.mlops4j.storage.impl;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Streams;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
 import lombok.AllArgsConstructor;
-import org.apache.commons.io.FileUtils;
 import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.api.exception.StreamException;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
 import org.mlops4j.storage.api.KeyValueStorage;
 import org.mlops4j.storage.api.Metadata;
 import org.mlops4j.storage.api.exception.DurabilityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
+ * Storage keeping every value in a separate file under root directory. Batch operations read and write files
+ * concurrently, with at most configured number of files in flight at a time.
+ * <p>
+ * With non-zero shard depth, file of key {@code a/b/name} is placed under {@code a/b/~xx/~yy/name}, where
+ * {@code xx} and {@code yy} are bytes of hash of {@code name}, so no directory grows beyond a few thousand entries.
+ * Shards are transparent for listing, hence key segments cannot start with {@value #SHARD_PREFIX}. Files of flat layout
+ * stay readable and are moved into shards by {@link #migrate()}, while the storage is in use.
+ * <p>
+ * Values are written to a hidden temporary file renamed over the target, so readers and crashes never see a partially
+ * written value. {@link Durability} decides if and how the written files are forced to the disk.
+ * <p>
+ * With key filter enabled, keys present under the root are tracked in memory and reads of missing keys are answered
+ * without touching the disk. Filter is shared by all storages of the same root in the JVM, which must be the only
+ * writer of the root.
+ * <p>
+ * Loose files of small values, which have not been modified for a while, are rolled into pack files by {@link #pack()},
+ * in the background as well with pack interval set. Packed values are read through memory mapped indexes and stored in
+ * order of their keys, so reading many of them is mostly sequential. New writes always go to loose files, which take
+ * precedence over packed values.
+ *
  * @author Michał Żelechowski <MichalZelechowski@github.com>
  */
 
-@AllArgsConstructor
 public class FileSystemKeyValueStorage implements KeyValueStorage {
 
+    private static final Logger LOG = LoggerFactory.getLogger(FileSystemKeyValueStorage.class);
+    private static final String SHARD_PREFIX = "~";
+    private static final String HIDDEN_PREFIX = ".";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    // keyed by path of the key, so storages of the same root share lock of every key
+    private static final Striped<Lock> LOCKS = Striped.lock(1024);
+
     private final Path root;
+    private final Path normalizedRoot;
+    private final Integer parallelism;
+    private final Executor executor;
+    private final Integer shardDepth;
+    private final Durability durability;
+    private final Integer groupCommitWindow;
+    private final GroupCommit groupCommit;
+    private final KeyFilter keyFilter;
+    private final Integer expectedKeys;
+    private final Boolean exactKeys;
+    private volatile PackFiles packs;
+    private final Integer packInterval;
+    private final Integer packAge;
+    private final Integer packValueSize;
+    private final Integer packSize;
+
+    private FileSystemKeyValueStorage(Path root, Integer parallelism, Executor executor, Integer shardDepth,
+                                      Durability durability, Integer groupCommitWindow, KeyFilter keyFilter,
+                                      Integer expectedKeys, Boolean exactKeys, PackFiles packs, Integer packInterval,
+                                      Integer packAge, Integer packValueSize, Integer packSize) {
+        this.root = root;
+        this.normalizedRoot = root.toAbsolutePath().normalize();
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.shardDepth = shardDepth;
+        this.durability = durability;
+        this.groupCommitWindow = groupCommitWindow;
+        this.groupCommit = new GroupCommit(TimeUnit.MICROSECONDS.toNanos(groupCommitWindow));
+        this.keyFilter = keyFilter;
+        this.expectedKeys = expectedKeys;
+        this.exactKeys = exactKeys;
+        this.packs = packs;
+        this.packInterval = packInterval;
+        this.packAge = packAge;
+        this.packValueSize = packValueSize;
+        this.packSize = packSize;
+    }
+
+    /**
+     * Policy of forcing written values to the disk. Writes are atomic with each of them, but only forced ones survive
+     * power loss once put returns.
+     */
+    public enum Durability {
+        /**
+         * Written files are left to the operating system to be flushed.
+         */
+        NONE,
+        /**
+         * Every written file and its directory are forced before put returns.
+         */
+        FSYNC,
+        /**
+         * Files written concurrently within group commit window are forced together, each directory once.
+         */
+        GROUP_COMMIT
+    }
 
     @Override
     public void put(String key, byte[] value) throws DurabilityException {
-        Path targetPath = root;
+        Path targetPath = this.target(key);
+        try {
+            this.locked(key, () -> {
+                this.track(key);
+                this.write(targetPath, channel -> {
+                    ByteBuffer buffer = ByteBuffer.wrap(value);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                });
+                this.removeFlat(key);
+            });
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot write file to %s at key %s", targetPath, key), e);
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        Path targetPath = this.target(key);
         try {
-            targetPath = targetPath.resolve(key);
-            FileUtils.writeByteArrayToFile(targetPath.toFile(), value);
+            this.locked(key, () -> {
+                this.track(key);
+                // stream over channel is not closed, channel is closed by write itself
+                this.write(targetPath, channel -> value.transferTo(Channels.newOutputStream(channel)));
+                this.removeFlat(key);
+            });
         } catch (IOException e) {
-            throw new DurabilityException(String.format("Cannot write file to %s at key", targetPath, key));
+            throw new DurabilityException(String.format("Cannot write stream to %s at key %s", targetPath, key), e);
         }
     }
 
+    @Override
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        this.forEachInParallel(values.keySet(), key -> this.put(key, values.get(key)));
+    }
+
     @Override
     public Optional<byte[]> get(String key) throws DurabilityException {
-        if (Files.exists(this.root.resolve(key))) {
-            try {
-                return Optional.of(FileUtils.readFileToByteArray(this.root.resolve(key).toFile()));
-            } catch (IOException e) {
-                throw new DurabilityException(String.format("Cannot read file from file %s", this.root.resolve(key)), e);
-            }
-        } else {
-            return Optional.empty();
+        return this.read(key, Files::readAllBytes, FileSystemKeyValueStorage::bytes, "Cannot read file from file %s");
+    }
+
+    /**
+     * Removes file of flat layout before the sharded one, so that migration running in between cannot bring the value
+     * back. Packed value of the key is marked removed afterwards.
+     */
+    @Override
+    public void delete(String key) throws DurabilityException {
+        this.validate(key);
+        Path targetPath = this.layout(key);
+        try {
+            this.locked(key, () -> {
+                Files.deleteIfExists(this.root.resolve(key));
+                Files.deleteIfExists(targetPath);
+                if (this.durability != Durability.NONE) {
+                    forceDirectory(targetPath.getParent());
+                }
+                Optional<PackFiles> packs = this.packs();
+                if (packs.isPresent()) {
+                    packs.get().remove(key, this.durability != Durability.NONE);
+                }
+                KeyFilter filter = Builder.FILTERS.get(this.normalizedRoot);
+                if (filter != null) {
+                    filter.remove(key);
+                }
+            });
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot delete file %s at key %s", targetPath, key), e);
         }
     }
 
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) throws DurabilityException {
+        Map<String, byte[]> result = new ConcurrentHashMap<>();
+        this.forEachInParallel(keys, key -> this.get(key).ifPresent(value -> result.put(key, value)));
+        return result;
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) throws DurabilityException {
+        return this.read(key, Files::newInputStream, buffer -> new ByteArrayInputStream(bytes(buffer)),
+                "Cannot open stream from file %s");
+    }
+
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) throws DurabilityException {
+        return this.read(key, sourcePath -> {
+            try (FileChannel channel = FileChannel.open(sourcePath, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException(String.format("File of size %d is too large to be mapped", size));
+                }
+                // mapping stays valid after channel is closed and is released when buffer is garbage collected
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }, Function.identity(), "Cannot map file %s");
+    }
+
     @Override
     public Iterator<String> list() throws DurabilityException {
         return this.list("");
@@ -73,19 +287,714 @@ public class FileSystemKeyValueStorage implements KeyValueStorage {
 
     @Override
     public Iterator<String> list(String prefix) throws DurabilityException {
+        return this.list(prefix, null, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) throws DurabilityException {
+        Path base = this.root.resolve(prefix);
+        Iterator<String> keys = Collections.emptyIterator();
+        if (Files.isDirectory(base)) {
+            try {
+                keys = new SortedKeyIterator(base, startAfter, this.shardDepth > 0);
+            } catch (StreamException e) {
+                throw (DurabilityException) e.getCause();
+            }
+        }
+        Optional<PackFiles> packs = this.packs();
+        if (packs.isPresent() && !packs.get().isEmpty()) {
+            keys = PackFiles.distinct(List.of(keys, packs.get().keys(prefix.isEmpty() ? prefix : prefix + "/", startAfter)));
+        }
+        return Iterators.limit(keys, limit);
+    }
+
+    /**
+     * Reads up to {@link #parallelism} files ahead of the iterated entry, so that one pass does not wait for every file
+     * in turn. Read failures are thrown as {@link StreamException}, closing the iterator drops values read ahead.
+     */
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) throws DurabilityException {
+        ReadAhead readAhead = new ReadAhead(this.list(prefix), prefix);
+        return CloseableIterator.of(readAhead, readAhead::close);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) throws DurabilityException {
+        return this.scan(prefix).map(Map.Entry::getValue);
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new AsyncFileSystem();
+    }
+
+    /**
+     * Moves files of flat layout into shards. Files are linked into their shard before they are removed, so
+     * concurrent readers always find them in one of both places, and a file written into the shard in the meantime is
+     * not overwritten.
+     *
+     * @return number of migrated files
+     */
+    public long migrate() throws DurabilityException {
+        Preconditions.checkState(this.shardDepth > 0, "Storage is not sharded");
+        List<Path> flat;
+        try (Stream<Path> files = Files.walk(this.root)) {
+            flat = files.filter(Files::isRegularFile)
+                    .filter(path -> Streams.stream(this.root.relativize(path)).map(Path::toString)
+                            .noneMatch(s -> s.startsWith(SHARD_PREFIX) || s.startsWith(HIDDEN_PREFIX)))
+                    .collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            throw new DurabilityException(String.format("Cannot list files of %s", this.root), e);
+        }
+        long migrated = 0;
+        for (Path source : flat) {
+            String key = Streams.stream(this.root.relativize(source)).map(Path::toString).collect(Collectors.joining("/"));
+            Path targetPath = this.layout(key);
+            try {
+                Files.createDirectories(targetPath.getParent());
+                try {
+                    Files.createLink(targetPath, source);
+                } catch (FileAlreadyExistsException e) {
+                    // newer value has been written to the shard already
+                } catch (UnsupportedOperationException e) {
+                    Files.move(source, targetPath);
+                }
+                Files.deleteIfExists(source);
+                migrated++;
+            } catch (NoSuchFileException e) {
+                // removed or migrated concurrently
+            } catch (IOException e) {
+                throw new DurabilityException(String.format("Cannot migrate file %s to %s", source, targetPath), e);
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Rolls loose files of values up to pack value size, which have not been modified for pack age, into pack files
+     * of up to pack size. Loose file is removed once its pack is published, unless it has been replaced or removed
+     * since it was read. Packs with all their keys removed are removed as well.
+     *
+     * @return number of packed keys
+     */
+    public long pack() throws DurabilityException {
+        PackFiles packs = Builder.PACKS.computeIfAbsent(this.normalizedRoot, Builder::openPacks);
+        this.packs = packs;
+        synchronized (packs) {
+            long modifiedBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(this.packAge);
+            List<LooseFile> batch = Lists.newArrayList();
+            long batchSize = 0;
+            long packed = 0;
+            try {
+                Iterator<String> keys = Files.isDirectory(this.root)
+                        ? new SortedKeyIterator(this.root, null, this.shardDepth > 0) : Collections.emptyIterator();
+                while (keys.hasNext()) {
+                    Optional<LooseFile> file = this.loose(keys.next());
+                    if (file.isEmpty() || file.get().attributes.size() > this.packValueSize
+                            || file.get().attributes.lastModifiedTime().toMillis() >= modifiedBefore) {
+                        continue;
+                    }
+                    // attributes are read before the value, so a value replaced in between is never removed
+                    try {
+                        file.get().value = Files.readAllBytes(file.get().path);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    if (batchSize + file.get().value.length > this.packSize) {
+                        packed += this.pack(packs, batch);
+                        batch.clear();
+                        batchSize = 0;
+                    }
+                    batch.add(file.get());
+                    batchSize += file.get().value.length;
+                }
+                packed += this.pack(packs, batch);
+                packs.prune();
+            } catch (StreamException e) {
+                throw (DurabilityException) e.getCause();
+            } catch (IOException e) {
+                throw new DurabilityException(String.format("Cannot pack files of %s", this.root), e);
+            }
+            return packed;
+        }
+    }
+
+    private long pack(PackFiles packs, List<LooseFile> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        PackFiles.Pack pack = packs.write(batch.stream()
+                .map(file -> Maps.immutableEntry(file.key, file.value))
+                .collect(Collectors.toList()));
+        for (LooseFile file : batch) {
+            this.locked(file.key, () -> {
+                Optional<LooseFile> current = this.loose(file.key);
+                if (current.isEmpty()) {
+                    // removed after it has been read
+                    pack.remove(file.key, true);
+                } else if (current.get().isSameAs(file)) {
+                    Files.deleteIfExists(file.path);
+                }
+            });
+        }
+        LOG.debug("Packed {} files of {}", batch.size(), this.root);
+        return batch.size();
+    }
+
+    private void packQuietly() {
+        try {
+            this.pack();
+        } catch (DurabilityException | RuntimeException e) {
+            LOG.warn("Packing of {} failed", this.root, e);
+        }
+    }
+
+    /**
+     * Finds loose file of the key in flat layout first and in the shard afterwards.
+     */
+    private Optional<LooseFile> loose(String key) throws IOException {
+        for (Path path : new LinkedHashSet<>(List.of(this.root.resolve(key), this.layout(key)))) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    return Optional.of(new LooseFile(key, path, attributes));
+                }
+            } catch (NoSuchFileException e) {
+                // not in this layout
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static class LooseFile {
+        private final String key;
+        private final Path path;
+        private final BasicFileAttributes attributes;
+        private byte[] value;
+
+        private LooseFile(String key, Path path, BasicFileAttributes attributes) {
+            this.key = key;
+            this.path = path;
+            this.attributes = attributes;
+        }
+
+        /**
+         * Replaced file is a new one, as values are renamed over their files.
+         */
+        private boolean isSameAs(LooseFile other) {
+            return this.path.equals(other.path)
+                    && Objects.equals(this.attributes.fileKey(), other.attributes.fileKey())
+                    && this.attributes.lastModifiedTime().equals(other.attributes.lastModifiedTime())
+                    && this.attributes.size() == other.attributes.size();
+        }
+    }
+
+    /**
+     * Runs action on loose file of the key under its lock, so packing cannot remove a file being written.
+     */
+    private void locked(String key, FileAction action) throws IOException {
+        Lock lock = LOCKS.get(this.normalizedRoot.resolve(key));
+        lock.lock();
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface FileAction {
+        void run() throws IOException;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.remaining()];
+        buffer.get(value);
+        return value;
+    }
+
+    private Path layout(String key) {
+        if (this.shardDepth == 0) {
+            return this.root.resolve(key);
+        }
+        int separator = key.lastIndexOf('/');
+        String name = key.substring(separator + 1);
+        Path directory = separator < 0 ? this.root : this.root.resolve(key.substring(0, separator));
+        byte[] hash = Hashing.murmur3_32().hashString(name, StandardCharsets.UTF_8).asBytes();
+        for (int i = 0; i < this.shardDepth; i++) {
+            directory = directory.resolve(String.format("%s%02x", SHARD_PREFIX, hash[i] & 0xff));
+        }
+        return directory.resolve(name);
+    }
+
+    private Path target(String key) throws DurabilityException {
+        this.validate(key);
+        return this.layout(key);
+    }
+
+    /**
+     * Adds key to key filter before its file exists, so that a concurrent read never misses it. Caller holds lock of
+     * the key, so a concurrent delete cannot remove the key from the filter after its file is written.
+     */
+    private void track(String key) {
+        KeyFilter filter = Builder.FILTERS.get(this.normalizedRoot);
+        if (filter != null) {
+            filter.add(key);
+        }
+    }
+
+    private void validate(String key) throws DurabilityException {
+        List<String> segments = Splitter.on('/').splitToList(key);
+        if (this.shardDepth > 0 && segments.stream().anyMatch(s -> s.startsWith(SHARD_PREFIX))) {
+            throw new DurabilityException(String.format("Key %s of sharded storage cannot have segment starting with %s", key, SHARD_PREFIX));
+        }
+        if (segments.stream().anyMatch(s -> s.startsWith(HIDDEN_PREFIX))) {
+            throw new DurabilityException(String.format("Key %s cannot have segment starting with %s", key, HIDDEN_PREFIX));
+        }
+    }
+
+    /**
+     * Writes content to a temporary file next to the target and renames it over the target, forcing both according
+     * to durability policy.
+     */
+    private void write(Path targetPath, ChannelWriter writer) throws IOException {
+        Files.createDirectories(targetPath.getParent());
+        Path temporary = temporary(targetPath);
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                writer.write(channel);
+                if (this.durability == Durability.FSYNC) {
+                    channel.force(true);
+                }
+            }
+            if (this.durability == Durability.GROUP_COMMIT) {
+                this.groupCommit.commit(temporary, targetPath);
+            } else {
+                Files.move(temporary, targetPath, StandardCopyOption.ATOMIC_MOVE);
+                if (this.durability == Durability.FSYNC) {
+                    forceDirectory(targetPath.getParent());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static Path temporary(Path targetPath) {
+        return targetPath.resolveSibling(HIDDEN_PREFIX + targetPath.getFileName() + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+    }
+
+    private static void forceFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces directory entries, so renames within directory survive a crash.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on some platforms, their entries are forced with the files there
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChannelWriter {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Collects files written concurrently and forces them together. First writer of a group waits for the window to
+     * pass, then forces and renames all collected files and forces their directories, each once. Writers coming
+     * meanwhile start the next group.
+     */
+    private static class GroupCommit {
+        private final long window;
+        private List<PendingWrite> pending = Lists.newArrayList();
+        private boolean leading;
+
+        private GroupCommit(long window) {
+            this.window = window;
+        }
+
+        private void commit(Path temporary, Path targetPath) throws IOException {
+            PendingWrite write = new PendingWrite(temporary, targetPath);
+            boolean leader;
+            synchronized (this) {
+                this.pending.add(write);
+                leader = !this.leading;
+                this.leading = true;
+            }
+            if (leader) {
+                LockSupport.parkNanos(this.window);
+                List<PendingWrite> group;
+                synchronized (this) {
+                    group = this.pending;
+                    this.pending = Lists.newArrayList();
+                    this.leading = false;
+                }
+                flush(group);
+            }
+            try {
+                write.done.get();
+            } catch (ExecutionException e) {
+                throw (IOException) e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted while committing %s", targetPath));
+            }
+        }
+
+        private static void flush(List<PendingWrite> group) {
+            Set<Path> directories = Sets.newLinkedHashSet();
+            List<PendingWrite> renamed = Lists.newArrayListWithCapacity(group.size());
+            for (PendingWrite write : group) {
+                try {
+                    forceFile(write.temporary);
+                    Files.move(write.temporary, write.target, StandardCopyOption.ATOMIC_MOVE);
+                    directories.add(write.target.getParent());
+                    renamed.add(write);
+                } catch (IOException e) {
+                    write.done.completeExceptionally(e);
+                }
+            }
+            directories.forEach(FileSystemKeyValueStorage::forceDirectory);
+            renamed.forEach(write -> write.done.complete(null));
+        }
+    }
+
+    @AllArgsConstructor
+    private static class PendingWrite {
+        private final Path temporary;
+        private final Path target;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
+
+    /**
+     * Removes file of flat layout, which would shadow value just written to the shard.
+     */
+    private void removeFlat(String key) throws IOException {
+        Path flat = this.root.resolve(key);
+        if (this.shardDepth > 0 && Files.isRegularFile(flat)) {
+            Files.deleteIfExists(flat);
+        }
+    }
+
+    /**
+     * Reads file of the key from flat layout first and from the shard afterwards, so a file migrated in between is
+     * not missed. Packs are looked up last, as a file is removed only once it has been packed.
+     */
+    private <T> Optional<T> read(String key, FileReader<T> reader, Function<ByteBuffer, T> packed, String failure)
+            throws DurabilityException {
+        if (this.isMissing(key)) {
+            return Optional.empty();
+        }
+        Path flat = this.root.resolve(key);
+        Path sharded = this.layout(key);
+        Path sourcePath = flat;
+        try {
+            if (!flat.equals(sharded)) {
+                try {
+                    return Optional.of(reader.read(flat));
+                } catch (NoSuchFileException e) {
+                    sourcePath = sharded;
+                }
+            }
+            return Optional.of(reader.read(sourcePath));
+        } catch (NoSuchFileException e) {
+            return this.packs().flatMap(packs -> packs.get(key)).map(packed);
+        } catch (IOException e) {
+            throw new DurabilityException(String.format(failure, sourcePath), e);
+        }
+    }
+
+    /**
+     * Packs of the root, which are opened only once packing has started or pack directory exists, so storages never
+     * packing do not open them.
+     */
+    private Optional<PackFiles> packs() {
+        PackFiles packs = this.packs;
+        if (packs == null) {
+            packs = Builder.PACKS.get(this.normalizedRoot);
+            if (packs == null && Files.isDirectory(this.normalizedRoot.resolve(PackFiles.DIRECTORY))) {
+                packs = Builder.PACKS.computeIfAbsent(this.normalizedRoot, Builder::openPacks);
+            }
+            this.packs = packs;
+        }
+        return Optional.ofNullable(packs);
+    }
+
+    private boolean isMissing(String key) {
+        return this.keyFilter != null && !this.keyFilter.mightContain(key);
+    }
+
+    /**
+     * Writes key filter to its hidden file under the root, so that the next start does not scan the root. It is done
+     * at JVM shutdown as well.
+     */
+    public void persistKeyFilter() throws DurabilityException {
+        if (this.keyFilter == null) {
+            return;
+        }
         try {
-            return Iterators.transform(
-                    Files.walk(this.root.resolve(prefix)).iterator(),
-                    p -> this.root.resolve(prefix).relativize(p).toString()
-            );
+            this.keyFilter.persist();
         } catch (IOException e) {
-            throw new DurabilityException(String.format("Cannot walk files %s/%s", this.root, prefix));
+            throw new DurabilityException(String.format("Cannot persist key filter of %s", this.root), e);
+        }
+    }
+
+    private class ReadAhead extends AbstractIterator<Map.Entry<String, byte[]>> {
+        private final Iterator<String> keys;
+        private final String namespace;
+        private final Deque<Map.Entry<String, CompletableFuture<Optional<byte[]>>>> window = new ArrayDeque<>();
+        private volatile boolean closed;
+
+        private ReadAhead(Iterator<String> keys, String prefix) {
+            this.keys = keys;
+            this.namespace = prefix.isEmpty() ? prefix : prefix + "/";
+        }
+
+        @Override
+        protected Map.Entry<String, byte[]> computeNext() {
+            while (true) {
+                while (!this.closed && this.window.size() < parallelism && this.keys.hasNext()) {
+                    String key = this.keys.next();
+                    String fullKey = this.namespace + key;
+                    this.window.add(Maps.immutableEntry(key, CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return get(fullKey);
+                        } catch (DurabilityException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor)));
+                }
+                Map.Entry<String, CompletableFuture<Optional<byte[]>>> head = this.window.poll();
+                if (head == null) {
+                    return this.endOfData();
+                }
+                try {
+                    Optional<byte[]> value = head.getValue().join();
+                    // otherwise removed since listed
+                    if (value.isPresent()) {
+                        return Maps.immutableEntry(head.getKey(), value.get());
+                    }
+                } catch (CompletionException e) {
+                    this.close();
+                    throw new StreamException(DurabilityException.of(e));
+                }
+            }
+        }
+
+        private void close() {
+            this.closed = true;
+            this.window.forEach(pending -> pending.getValue().cancel(false));
+            this.window.clear();
+        }
+    }
+
+    @FunctionalInterface
+    private interface FileReader<T> {
+        T read(Path path) throws IOException;
+    }
+
+    /**
+     * Runs operation for every key with at most {@link #parallelism} workers, each of them taking next pending key
+     * once it is done with previous one. First failure stops taking further keys and is rethrown.
+     */
+    private void forEachInParallel(Collection<String> keys, KeyOperation operation) throws DurabilityException {
+        Queue<String> pending = new ConcurrentLinkedQueue<>(new LinkedHashSet<>(keys));
+        int workers = Math.min(this.parallelism, pending.size());
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            futures[i] = CompletableFuture.runAsync(() -> {
+                String key;
+                while ((key = pending.poll()) != null) {
+                    try {
+                        operation.apply(key);
+                    } catch (DurabilityException e) {
+                        pending.clear();
+                        throw new StreamException(e);
+                    }
+                }
+            }, this.executor);
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof StreamException) {
+                throw (DurabilityException) e.getCause().getCause();
+            }
+            throw new DurabilityException("Batch operation failed", e.getCause());
+        }
+    }
+
+    @FunctionalInterface
+    private interface KeyOperation {
+        void apply(String key) throws DurabilityException;
+    }
+
+    /**
+     * Reads and writes single values with {@link AsynchronousFileChannel}, so no thread waits for the disk. Streams and
+     * batches are handled on the executor of the storage.
+     */
+    private class AsyncFileSystem implements AsyncKeyValueStorage {
+        private final AsyncKeyValueStorage blocking = new ExecutorAsyncKeyValueStorage(FileSystemKeyValueStorage.this, executor);
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] value) {
+            if (durability != Durability.NONE) {
+                // forcing blocks anyway
+                return this.blocking.put(key, value);
+            }
+            Path targetPath = layout(key);
+            try {
+                targetPath = target(key);
+                Files.createDirectories(targetPath.getParent());
+                Path temporary = temporary(targetPath);
+                Path target = targetPath;
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(temporary, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE_NEW);
+                String message = String.format("Cannot write file to %s at key %s", targetPath, key);
+                return transferFully(channel, ByteBuffer.wrap(value), true)
+                        .handle((transferred, e) -> closeAfter(channel, e, (Void) null, message))
+                        .whenComplete((nothing, e) -> {
+                            try {
+                                if (e == null) {
+                                    locked(key, () -> {
+                                        track(key);
+                                        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+                                        removeFlat(key);
+                                    });
+                                }
+                            } catch (IOException moveFailure) {
+                                throw new CompletionException(new DurabilityException(message, moveFailure));
+                            } finally {
+                                try {
+                                    Files.deleteIfExists(temporary);
+                                } catch (IOException deleteFailure) {
+                                    // left hidden, it is not listed
+                                }
+                            }
+                        });
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(
+                        new DurabilityException(String.format("Cannot write file to %s at key %s", targetPath, key), e));
+            } catch (DurabilityException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, InputStream value) {
+            return this.blocking.put(key, value);
+        }
+
+        @Override
+        public CompletableFuture<Void> putAll(Map<String, byte[]> values) {
+            return this.blocking.putAll(values);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> get(String key) {
+            if (isMissing(key)) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+            Path flat = root.resolve(key);
+            Path sharded = layout(key);
+            CompletableFuture<Optional<byte[]>> loose = flat.equals(sharded) ? this.read(flat)
+                    : this.read(flat).thenCompose(value -> value.isPresent() ? CompletableFuture.completedFuture(value) : this.read(sharded));
+            return loose.thenApply(value -> value.isPresent() ? value : packs().flatMap(packs -> packs.get(key))
+                    .map(FileSystemKeyValueStorage::bytes));
+        }
+
+        private CompletableFuture<Optional<byte[]>> read(Path sourcePath) {
+            try {
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(sourcePath, StandardOpenOption.READ);
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    channel.close();
+                    throw new IOException(String.format("File of %d bytes is too large for byte array", size));
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                return transferFully(channel, buffer, false)
+                        .handle((transferred, e) -> closeAfter(channel, e,
+                                Optional.of(Arrays.copyOf(buffer.array(), buffer.position())),
+                                String.format("Cannot read file from file %s", sourcePath)));
+            } catch (NoSuchFileException e) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(
+                        new DurabilityException(String.format("Cannot read file from file %s", sourcePath), e));
+            }
+        }
+
+        @Override
+        public CompletableFuture<Map<String, byte[]>> getAll(Collection<String> keys) {
+            return this.blocking.getAll(keys);
+        }
+
+        @Override
+        public Executor executor() {
+            return executor;
+        }
+
+        private <T> T closeAfter(AsynchronousFileChannel channel, Throwable failure, T value, String message) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = Optional.ofNullable(failure).orElse(e);
+            }
+            if (failure != null) {
+                throw new CompletionException(new DurabilityException(message, failure));
+            }
+            return value;
         }
     }
 
+    /**
+     * Reads or writes buffer at the beginning of the channel until it has no bytes remaining or end of file is reached.
+     */
+    private static CompletableFuture<Void> transferFully(AsynchronousFileChannel channel, ByteBuffer buffer, boolean write) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        CompletionHandler<Integer, Void> handler = new CompletionHandler<>() {
+            @Override
+            public void completed(Integer transferred, Void attachment) {
+                if (transferred < 0 || !buffer.hasRemaining()) {
+                    result.complete(null);
+                } else if (write) {
+                    channel.write(buffer, buffer.position(), null, this);
+                } else {
+                    channel.read(buffer, buffer.position(), null, this);
+                }
+            }
+
+            @Override
+            public void failed(Throwable failure, Void attachment) {
+                result.completeExceptionally(failure);
+            }
+        };
+        handler.completed(0, null);
+        return result;
+    }
+
     @Override
     public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
-        return new Metadata<>(this).withParameter("root", this.root.toFile().getAbsolutePath());
+        return new Metadata<>(this)
+                .withParameter("root", this.root.toFile().getAbsolutePath())
+                .withParameter("parallelism", this.parallelism)
+                .withParameter("shardDepth", this.shardDepth)
+                .withParameter("durability", this.durability.name())
+                .withParameter("groupCommitWindow", this.groupCommitWindow)
+                .withParameter("keyFilter", this.keyFilter != null)
+                .withParameter("expectedKeys", this.expectedKeys)
+                .withParameter("exactKeys", this.exactKeys)
+                .withParameter("packInterval", this.packInterval)
+                .withParameter("packAge", this.packAge)
+                .withParameter("packValueSize", this.packValueSize)
+                .withParameter("packSize", this.packSize);
     }
 
     @Override
@@ -93,14 +1002,167 @@ public class FileSystemKeyValueStorage implements KeyValueStorage {
         return new Builder();
     }
 
+    /**
+     * Walks directory tree depth first, visiting entries of every directory in order of the keys they represent, so
+     * that keys come out sorted. Subtrees, which contain only keys not after {@code startAfter}, are not visited.
+     */
+    private static class SortedKeyIterator extends AbstractIterator<String> {
+        private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+        private final String startAfter;
+        private final boolean sharded;
+
+        private SortedKeyIterator(Path base, String startAfter, boolean sharded) {
+            this.startAfter = startAfter;
+            this.sharded = sharded;
+            this.stack.push(this.entries(base, ""));
+        }
+
+        @Override
+        protected String computeNext() {
+            while (!this.stack.isEmpty()) {
+                Iterator<Entry> entries = this.stack.peek();
+                if (!entries.hasNext()) {
+                    this.stack.pop();
+                    continue;
+                }
+                Entry entry = entries.next();
+                if (entry.directory) {
+                    if (this.startAfter == null || entry.sortKey.compareTo(this.startAfter) > 0
+                            || this.startAfter.startsWith(entry.sortKey)) {
+                        this.stack.push(this.entries(entry.path, entry.sortKey));
+                    }
+                } else if (this.startAfter == null || entry.key.compareTo(this.startAfter) > 0) {
+                    return entry.key;
+                }
+            }
+            return this.endOfData();
+        }
+
+        /**
+         * Entries of shard directories are merged with entries of the directory they belong to.
+         */
+        private Iterator<Entry> entries(Path directory, String keyPrefix) {
+            List<Entry> entries = Lists.newArrayList();
+            this.collect(directory, keyPrefix, entries);
+            entries.sort(Comparator.comparing(e -> e.sortKey));
+            return entries.iterator();
+        }
+
+        private void collect(Path directory, String keyPrefix, List<Entry> entries) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    boolean isDirectory = Files.isDirectory(path);
+                    if (name.startsWith(HIDDEN_PREFIX)) {
+                        continue;
+                    }
+                    if (this.sharded && isDirectory && name.startsWith(SHARD_PREFIX)) {
+                        this.collect(path, keyPrefix, entries);
+                    } else {
+                        entries.add(new Entry(path, keyPrefix + name, isDirectory));
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // shard removed concurrently
+            } catch (IOException e) {
+                throw new StreamException(new DurabilityException(String.format("Cannot list directory %s", directory), e));
+            }
+        }
+    }
+
+    private static class Entry {
+        private final Path path;
+        private final String key;
+        private final String sortKey;
+        private final boolean directory;
+
+        private Entry(Path path, String key, boolean directory) {
+            this.path = path;
+            this.key = key;
+            this.directory = directory;
+            // all keys inside directory start with its name followed by separator
+            this.sortKey = directory ? key + "/" : key;
+        }
+    }
+
     public static class Builder implements ComponentBuilder<KeyValueStorage> {
 
+        // filters live as long as the JVM, as they must see every write to their root until persisted at shutdown
+        private final static ConcurrentMap<Path, KeyFilter> FILTERS = Maps.newConcurrentMap();
+        // packs are dropped once no storage of their root is reachable
+        private final static ConcurrentMap<Path, PackFiles> PACKS = new MapMaker().weakValues().makeMap();
+        private final static AtomicBoolean SHUTDOWN_HOOK = new AtomicBoolean();
         private Path root;
+        private Integer parallelism = 8;
+        private Executor executor = StorageExecutors.IO;
+        private Integer shardDepth = 0;
+        private Durability durability = Durability.NONE;
+        private Integer groupCommitWindow = 1000;
+        private Boolean keyFilter = false;
+        private Integer expectedKeys = 1_000_000;
+        private Boolean exactKeys = false;
+        private Integer packInterval = 0;
+        private Integer packAge = 600;
+        private Integer packValueSize = 64 * 1024;
+        private Integer packSize = 64 * 1024 * 1024;
 
         @Override
         public KeyValueStorage build() {
             Preconditions.checkNotNull(root, "Root path must be set");
-            return new FileSystemKeyValueStorage(this.root);
+            Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive");
+            Preconditions.checkNotNull(executor, "Executor must be set");
+            Preconditions.checkArgument(shardDepth >= 0 && shardDepth <= Integer.BYTES, "Shard depth must be between 0 and %s", Integer.BYTES);
+            Preconditions.checkNotNull(durability, "Durability must be set");
+            Preconditions.checkArgument(groupCommitWindow >= 0, "Group commit window cannot be negative");
+            Preconditions.checkArgument(expectedKeys > 0, "Expected number of keys must be positive");
+            Preconditions.checkArgument(packInterval >= 0, "Pack interval cannot be negative");
+            Preconditions.checkArgument(packAge >= 0, "Pack age cannot be negative");
+            Preconditions.checkArgument(packValueSize >= 0 && packValueSize <= packSize, "Pack value size must be between 0 and pack size");
+            Path normalized = root.toAbsolutePath().normalize();
+            PackFiles packs = this.packInterval > 0 || Files.isDirectory(normalized.resolve(PackFiles.DIRECTORY))
+                    ? PACKS.computeIfAbsent(normalized, Builder::openPacks) : PACKS.get(normalized);
+            KeyFilter filter = this.keyFilter ? FILTERS.computeIfAbsent(normalized, r -> this.loadFilter(r, packs)) : null;
+            FileSystemKeyValueStorage storage = new FileSystemKeyValueStorage(this.root, this.parallelism, this.executor,
+                    this.shardDepth, this.durability, this.groupCommitWindow, filter, this.expectedKeys, this.exactKeys,
+                    packs, this.packInterval, this.packAge, this.packValueSize, this.packSize);
+            if (this.packInterval > 0) {
+                packs.schedule(storage::packQuietly, this.packInterval);
+            }
+            return storage;
+        }
+
+        private static PackFiles openPacks(Path root) {
+            try {
+                return PackFiles.open(root);
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("Cannot open pack files of %s", root), e);
+            }
+        }
+
+        private KeyFilter loadFilter(Path root, PackFiles packs) {
+            try {
+                KeyFilter filter = KeyFilter.load(root, this.expectedKeys, this.exactKeys, this.shardDepth > 0 ? SHARD_PREFIX : null);
+                // scan of the root does not see packed keys
+                if (packs != null) {
+                    packs.keys("", null).forEachRemaining(filter::add);
+                }
+                if (SHUTDOWN_HOOK.compareAndSet(false, true)) {
+                    Runtime.getRuntime().addShutdownHook(new Thread(Builder::persistFilters, "mlops4j-key-filter"));
+                }
+                return filter;
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("Cannot build key filter of %s", root), e);
+            }
+        }
+
+        private static void persistFilters() {
+            FILTERS.forEach((root, filter) -> {
+                try {
+                    filter.persist();
+                } catch (IOException e) {
+                    LOG.warn("Cannot persist key filter of {}, it is rebuilt on next start", root, e);
+                }
+            });
         }
 
         public Builder root(String root) {
@@ -118,5 +1180,114 @@ public class FileSystemKeyValueStorage implements KeyValueStorage {
             return this;
         }
 
+        /**
+         * Maximal number of files read or written at a time by batch operations.
+         */
+        public Builder parallelism(Integer parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Executor running batch and asynchronous stream operations, shared pool of daemon threads by default. It is
+         * not persisted with metadata, so restored storage uses the default one.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Number of nested hash directories, each with up to 256 entries, between directory of a key and its file.
+         * Flat layout with 0 by default.
+         */
+        public Builder shardDepth(Integer shardDepth) {
+            this.shardDepth = shardDepth;
+            return this;
+        }
+
+        /**
+         * Policy of forcing written values to the disk, {@link Durability#NONE} by default.
+         */
+        public Builder durability(Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        public Builder durability(String durability) {
+            this.durability = Durability.valueOf(durability);
+            return this;
+        }
+
+        /**
+         * Time in microseconds, for which the first write of a group waits for concurrent writes to be forced
+         * together with.
+         */
+        public Builder groupCommitWindow(Integer groupCommitWindow) {
+            this.groupCommitWindow = groupCommitWindow;
+            return this;
+        }
+
+        /**
+         * Tracks keys in memory to answer reads of missing keys without touching the disk, disabled by default. The
+         * filter is built by scanning the root once per JVM, unless it has been persisted by a clean shutdown. Keys
+         * cannot be removed from Bloom filter, so without exact keys reads of a deleted key keep going to the disk,
+         * also once the filter has been persisted and loaded again.
+         */
+        public Builder keyFilter(Boolean keyFilter) {
+            this.keyFilter = keyFilter;
+            return this;
+        }
+
+        /**
+         * Number of keys, for which Bloom filter of key filter is sized to 1% of false positives, a million by default.
+         */
+        public Builder expectedKeys(Integer expectedKeys) {
+            this.expectedKeys = expectedKeys;
+            return this;
+        }
+
+        /**
+         * Whether key filter keeps exact set of keys next to Bloom filter, so no missing key goes to the disk at the
+         * cost of memory for every key. Deleted keys are dropped from the exact set only. Disabled by default.
+         */
+        public Builder exactKeys(Boolean exactKeys) {
+            this.exactKeys = exactKeys;
+            return this;
+        }
+
+        /**
+         * Time in seconds between runs of background packing, which is disabled with 0 by default. Packing runs once
+         * per root, with options of the first storage asking for it.
+         */
+        public Builder packInterval(Integer packInterval) {
+            this.packInterval = packInterval;
+            return this;
+        }
+
+        /**
+         * Time in seconds, for which a loose file has to stay unmodified to be packed, 10 minutes by default.
+         */
+        public Builder packAge(Integer packAge) {
+            this.packAge = packAge;
+            return this;
+        }
+
+        /**
+         * Maximal size of packed value in bytes, 64KiB by default. Larger values stay in loose files.
+         */
+        public Builder packValueSize(Integer packValueSize) {
+            this.packValueSize = packValueSize;
+            return this;
+        }
+
+        /**
+         * Maximal size of values of a single pack in bytes, 64MiB by default.
+         */
+        public Builder packSize(Integer packSize) {
+            this.packSize = packSize;
+            return this;
+        }
+
     }
 }
@@ -17,34 +17,88 @@
 
 package org.mlops4j.storage.impl;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Iterators;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.text.RandomStringGenerator;
 import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
 import org.mlops4j.storage.api.KeyValueStorage;
 import org.mlops4j.storage.api.Metadata;
 import org.mlops4j.storage.api.exception.DurabilityException;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
+ * Storage keeping values on the heap, shared by all storages of the same name in the JVM.
+ * <p>
+ * With snapshot directory set, content is written periodically to a snapshot in a subdirectory of the name, with
+ * changes logged in between, and restored from there when the storage of the name is built first in the JVM.
+ *
  * @author Michał Żelechowski <MichalZelechowski@github.com>
  */
 public class InMemoryKeyValueStorage implements KeyValueStorage {
-    private final ConcurrentMap<String, byte[]> content;
+    private final ConcurrentNavigableMap<String, byte[]> content;
     private final String name;
+    private final SnapshotLog snapshotLog;
+    private final Path snapshotDirectory;
+    private final Integer snapshotInterval;
 
-    private InMemoryKeyValueStorage(String name, ConcurrentMap<String, byte[]> content) {
+    private InMemoryKeyValueStorage(String name, ConcurrentNavigableMap<String, byte[]> content, SnapshotLog snapshotLog,
+                                    Path snapshotDirectory, Integer snapshotInterval) {
         this.name = name;
         this.content = content;
+        this.snapshotLog = snapshotLog;
+        this.snapshotDirectory = snapshotDirectory;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws DurabilityException {
+        if (this.snapshotLog == null) {
+            this.content.put(key, value);
+            return;
+        }
+        try {
+            this.snapshotLog.put(key, value);
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot log change of key %s", key), e);
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        byte[] bytes;
+        try {
+            bytes = value.readAllBytes();
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot read stream for key %s", key), e);
+        }
+        this.put(key, bytes);
     }
 
     @Override
-    public void put(String key, byte[] value) {
-        this.content.put(key, value);
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        if (this.snapshotLog == null) {
+            this.content.putAll(values);
+            return;
+        }
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            this.put(entry.getKey(), entry.getValue());
+        }
     }
 
     @Override
@@ -52,6 +106,36 @@ public class InMemoryKeyValueStorage implements KeyValueStorage {
         return Optional.ofNullable(this.content.get(key));
     }
 
+    @Override
+    public void delete(String key) throws DurabilityException {
+        if (this.snapshotLog == null) {
+            this.content.remove(key);
+            return;
+        }
+        try {
+            this.snapshotLog.remove(key);
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot log removal of key %s", key), e);
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) {
+        Map<String, byte[]> result = Maps.newHashMapWithExpectedSize(keys.size());
+        keys.forEach(key -> this.get(key).ifPresent(value -> result.put(key, value)));
+        return result;
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) {
+        return this.get(key).map(ByteArrayInputStream::new);
+    }
+
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) {
+        return this.get(key).map(ByteBuffer::wrap).map(ByteBuffer::asReadOnlyBuffer);
+    }
+
     @Override
     public Iterator<String> list() {
         return this.list("");
@@ -59,15 +143,51 @@ public class InMemoryKeyValueStorage implements KeyValueStorage {
 
     @Override
     public Iterator<String> list(String prefix) {
-        return Iterators.transform(
-                Iterables.filter(this.content.keySet(), s -> s.startsWith(prefix)).iterator(),
-                s -> prefix.isEmpty() ? s : s.substring(prefix.length() + 1)
-        );
+        return OrderedKeys.list(this.content.navigableKeySet(), prefix);
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) {
+        return OrderedKeys.range(this.content.navigableKeySet(), prefix, startAfter, limit);
+    }
+
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) {
+        return OrderedKeys.scan(this.list(prefix), prefix, this::get);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) {
+        return this.scan(prefix).map(Map.Entry::getValue);
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new ExecutorAsyncKeyValueStorage(this, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Writes snapshot of the content, so that restore does not replay changes logged so far.
+     *
+     * @return number of entries in the snapshot
+     */
+    public long snapshot() throws DurabilityException {
+        Preconditions.checkState(this.snapshotLog != null, "Storage has no snapshot directory");
+        try {
+            return this.snapshotLog.snapshot();
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot write snapshot of %s to %s", this.name, this.snapshotDirectory), e);
+        }
     }
 
     @Override
     public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
-        return new Metadata<>(this).withParameter("name", this.name);
+        Metadata<KeyValueStorage> metadata = new Metadata<>(this).withParameter("name", this.name);
+        if (this.snapshotDirectory != null) {
+            metadata.withParameter("snapshotDirectory", this.snapshotDirectory.toFile().getAbsolutePath())
+                    .withParameter("snapshotInterval", this.snapshotInterval);
+        }
+        return metadata;
     }
 
     @Override
@@ -77,15 +197,39 @@ public class InMemoryKeyValueStorage implements KeyValueStorage {
 
     public static class Builder implements ComponentBuilder<KeyValueStorage> {
 
-        private final static ConcurrentMap<String, ConcurrentMap<String, byte[]>> MAPS = Maps.newConcurrentMap();
+        private final static ConcurrentMap<String, ConcurrentNavigableMap<String, byte[]>> MAPS = Maps.newConcurrentMap();
+        private final static ConcurrentMap<String, SnapshotLog> SNAPSHOT_LOGS = Maps.newConcurrentMap();
         private String name;
+        private Path snapshotDirectory;
+        private Integer snapshotInterval = 600;
 
         @Override
         public KeyValueStorage build() {
+            Preconditions.checkArgument(snapshotInterval >= 0, "Snapshot interval cannot be negative");
+            Preconditions.checkArgument(snapshotDirectory == null || this.name != null, "Storage with snapshot directory must be named");
             String name = Optional.ofNullable(this.name)
                     .orElse(new RandomStringGenerator.Builder().withinRange('a', 'z').build().generate(40));
-            MAPS.computeIfAbsent(name, n -> Maps.newConcurrentMap());
-            return new InMemoryKeyValueStorage(name, MAPS.get(name));
+            MAPS.computeIfAbsent(name, n -> new ConcurrentSkipListMap<>());
+            // storages of the same name write through the same log, with or without snapshot directory of their own
+            SnapshotLog snapshotLog = SNAPSHOT_LOGS.get(name);
+            if (this.snapshotDirectory != null) {
+                snapshotLog = SNAPSHOT_LOGS.computeIfAbsent(name, this::openSnapshotLog);
+                if (this.snapshotInterval > 0) {
+                    snapshotLog.schedule(this.snapshotInterval);
+                }
+            }
+            return new InMemoryKeyValueStorage(name, MAPS.get(name), snapshotLog, this.snapshotDirectory, this.snapshotInterval);
+        }
+
+        private SnapshotLog openSnapshotLog(String name) {
+            Path directory = this.snapshotDirectory.resolve(name);
+            Preconditions.checkState(MAPS.get(name).isEmpty(),
+                    "Storage %s holds entries written without snapshot log, which cannot be restored from %s", name, directory);
+            try {
+                return SnapshotLog.open(directory, MAPS.get(name), StorageExecutors.IO);
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("Cannot restore storage %s from %s", name, directory), e);
+            }
         }
 
         public Builder name(String name) {
@@ -93,5 +237,32 @@ public class InMemoryKeyValueStorage implements KeyValueStorage {
             return this;
         }
 
+        /**
+         * Directory, in which snapshots and change log of the storage are kept, none by default. It has to be set by the
+         * first storage of the name, storages of the name built later use its log, even without the directory.
+         */
+        public Builder snapshotDirectory(String snapshotDirectory) {
+            this.snapshotDirectory = Path.of(snapshotDirectory);
+            return this;
+        }
+
+        public Builder snapshotDirectory(File snapshotDirectory) {
+            this.snapshotDirectory = Path.of(snapshotDirectory.toURI());
+            return this;
+        }
+
+        public Builder snapshotDirectory(Path snapshotDirectory) {
+            this.snapshotDirectory = snapshotDirectory;
+            return this;
+        }
+
+        /**
+         * Time in seconds between snapshots, 10 minutes by default. Snapshots are written only on demand with 0.
+         */
+        public Builder snapshotInterval(Integer snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+            return this;
+        }
+
     }
 }
@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.collect.Sets;
+import com.google.common.collect.Streams;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keys of a file system storage held in memory, so reads of keys which certainly do not exist never touch the disk.
+ * Keys are kept in a Bloom filter, optionally together with exact set of keys, which removes false positives as well.
+ * <p>
+ * Filter is built from the scan of root directory and persisted in a hidden file at JVM shutdown. The file is removed
+ * once loaded, so after a crash the filter is rebuilt from the scan instead of missing keys written in between. It
+ * assumes all writers of the root run in this JVM.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+final class KeyFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyFilter.class);
+    private static final String FILE = ".keys.filter";
+    private static final int MAGIC = 0x6b657973;
+
+    private final Path file;
+    private final BloomFilter<CharSequence> bloom;
+    private final Set<String> keys;
+
+    private KeyFilter(Path file, BloomFilter<CharSequence> bloom, Set<String> keys) {
+        this.file = file;
+        this.bloom = bloom;
+        this.keys = keys;
+    }
+
+    static KeyFilter load(Path root, int expectedKeys, boolean exact, String shardPrefix) throws IOException {
+        Path file = root.resolve(FILE);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            KeyFilter filter = read(file, input);
+            Files.delete(file);
+            if (filter.keys != null || !exact) {
+                return filter;
+            }
+        } catch (NoSuchFileException e) {
+            // first start or the previous one has not been shut down cleanly
+        } catch (IOException e) {
+            LOG.warn("Cannot read key filter {}, it is rebuilt", file, e);
+        }
+        return scan(root, expectedKeys, exact, shardPrefix);
+    }
+
+    private static KeyFilter read(Path file, DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a key filter");
+        }
+        BloomFilter<CharSequence> bloom = BloomFilter.readFrom(input, Funnels.stringFunnel(StandardCharsets.UTF_8));
+        Set<String> keys = null;
+        if (input.readBoolean()) {
+            int count = input.readInt();
+            keys = Sets.newConcurrentHashSet();
+            for (int i = 0; i < count; i++) {
+                keys.add(input.readUTF());
+            }
+        }
+        return new KeyFilter(file, bloom, keys);
+    }
+
+    private static KeyFilter scan(Path root, int expectedKeys, boolean exact, String shardPrefix) throws IOException {
+        KeyFilter filter = new KeyFilter(root.resolve(FILE),
+                BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedKeys),
+                exact ? Sets.newConcurrentHashSet() : null);
+        if (!Files.isDirectory(root)) {
+            return filter;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile)
+                    .map(root::relativize)
+                    .filter(path -> Streams.stream(path).noneMatch(segment -> segment.toString().startsWith(".")))
+                    .map(path -> Streams.stream(path).map(Path::toString)
+                            .filter(segment -> shardPrefix == null || !segment.startsWith(shardPrefix))
+                            .collect(Collectors.joining("/")))
+                    .forEach(filter::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return filter;
+    }
+
+    boolean mightContain(String key) {
+        return this.keys != null ? this.keys.contains(key) : this.bloom.mightContain(key);
+    }
+
+    void add(String key) {
+        this.bloom.put(key);
+        if (this.keys != null) {
+            this.keys.add(key);
+        }
+    }
+
+    /**
+     * Forgets removed key, which is possible only with exact set of keys. Bloom filter keeps answering it may exist.
+     */
+    void remove(String key) {
+        if (this.keys != null) {
+            this.keys.remove(key);
+        }
+    }
+
+    /**
+     * Writes the filter atomically to its hidden file in root directory.
+     */
+    synchronized void persist() throws IOException {
+        Path temporary = this.file.resolveSibling(FILE + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            this.bloom.writeTo(output);
+            output.writeBoolean(this.keys != null);
+            if (this.keys != null) {
+                Set<String> snapshot = Set.copyOf(this.keys);
+                output.writeInt(snapshot.size());
+                for (String key : snapshot) {
+                    output.writeUTF(key);
+                }
+            }
+        }
+        Files.move(temporary, this.file, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,733 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Storage appending all values to segment files. Latest location of every key is kept in memory and rebuilt at start
+ * from hint files of sealed segments and from scan of the active one. Keys are additionally kept sorted for prefix
+ * listing, so point reads do not pay for the ordering. Segments with too much overwritten content are compacted in
+ * the background.
+ * <p>
+ * Record layout is {@code keyLength:int, valueLength:long, key, value, crc32:int}, hint entries are
+ * {@code keyLength:int, key, recordOffset:long, valueLength:long}. Deleted key is recorded as tombstone, record with
+ * value length {@value #TOMBSTONE} and no value, which is carried over by compaction as long as older segments may
+ * still hold the key.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public class LogStructuredKeyValueStorage implements KeyValueStorage, Closeable {
+    private final static Logger LOG = LoggerFactory.getLogger(LogStructuredKeyValueStorage.class);
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String HINT_SUFFIX = ".hint";
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int TRAILER_SIZE = Integer.BYTES;
+    private static final int BUFFER_SIZE = 8192;
+    private static final long TOMBSTONE = -1L;
+
+    private final Path root;
+    private final Integer segmentSize;
+    private final Double compactionThreshold;
+    private final Integer compactionInterval;
+    private final ConcurrentMap<String, Location> index = Maps.newConcurrentMap();
+    private final NavigableSet<String> keys = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String, Location> tombstones = Maps.newConcurrentMap();
+    private final ConcurrentMap<Integer, Segment> segments = Maps.newConcurrentMap();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService compactor;
+    private volatile Segment active;
+
+    private LogStructuredKeyValueStorage(Path root, Integer segmentSize, Double compactionThreshold, Integer compactionInterval) throws IOException {
+        this.root = root;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.compactionInterval = compactionInterval;
+        Files.createDirectories(root);
+        this.recover();
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mlops4j-compaction-" + root.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactor.scheduleWithFixedDelay(this::compactQuietly, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws DurabilityException {
+        this.put(key, new ByteArrayInputStream(value));
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        this.appendLock.lock();
+        try {
+            Location location = this.append(key, value);
+            this.index(key, location);
+            if (this.active.size.get() >= this.segmentSize) {
+                this.roll();
+            }
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot append key %s to segment %s", key, this.active.path), e);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(String key) throws DurabilityException {
+        this.segmentsLock.readLock().lock();
+        try {
+            Location location = this.index.get(key);
+            if (location == null) {
+                return Optional.empty();
+            }
+            if (location.length > Integer.MAX_VALUE) {
+                throw new DurabilityException(String.format("Value of key %s is too large for byte array", key));
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) location.length);
+            readFully(this.segments.get(location.segment).channel, buffer, location.offset);
+            return Optional.of(buffer.array());
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot read key %s from segment", key), e);
+        } finally {
+            this.segmentsLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(String key) throws DurabilityException {
+        this.appendLock.lock();
+        try {
+            if (!this.index.containsKey(key)) {
+                return;
+            }
+            this.tombstone(key, this.appendTombstone(key));
+            if (this.active.size.get() >= this.segmentSize) {
+                this.roll();
+            }
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot append tombstone of key %s to segment %s", key, this.active.path), e);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends all values under single acquisition of append lock, so they end up next to each other in the segment.
+     */
+    @Override
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        this.appendLock.lock();
+        try {
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                this.put(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Reads all keys ordered by their location, so every segment is read sequentially.
+     */
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) throws DurabilityException {
+        List<Map.Entry<String, Location>> located = Lists.newArrayList();
+        for (String key : Sets.newLinkedHashSet(keys)) {
+            Optional.ofNullable(this.index.get(key)).ifPresent(location -> located.add(Maps.immutableEntry(key, location)));
+        }
+        located.sort(Comparator.comparing((Map.Entry<String, Location> entry) -> entry.getValue().segment)
+                .thenComparing(entry -> entry.getValue().offset));
+        Map<String, byte[]> result = Maps.newHashMapWithExpectedSize(located.size());
+        for (Map.Entry<String, Location> entry : located) {
+            this.get(entry.getKey()).ifPresent(value -> result.put(entry.getKey(), value));
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) throws DurabilityException {
+        this.segmentsLock.readLock().lock();
+        try {
+            Location location = this.index.get(key);
+            if (location == null) {
+                return Optional.empty();
+            }
+            // own channel keeps segment readable even if it is compacted away while stream is open
+            FileChannel channel = FileChannel.open(this.segments.get(location.segment).path, StandardOpenOption.READ);
+            return Optional.of(new BufferedInputStream(new RegionInputStream(channel, location.offset, location.length, true)));
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot open stream for key %s", key), e);
+        } finally {
+            this.segmentsLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) throws DurabilityException {
+        this.segmentsLock.readLock().lock();
+        try {
+            Location location = this.index.get(key);
+            if (location == null) {
+                return Optional.empty();
+            }
+            if (location.length > Integer.MAX_VALUE) {
+                throw new DurabilityException(String.format("Value of key %s is too large to be mapped", key));
+            }
+            return Optional.of(this.segments.get(location.segment).channel.map(FileChannel.MapMode.READ_ONLY, location.offset, location.length));
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot map key %s from segment", key), e);
+        } finally {
+            this.segmentsLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Iterator<String> list() {
+        return this.list("");
+    }
+
+    @Override
+    public Iterator<String> list(String prefix) {
+        return OrderedKeys.list(this.keys, prefix);
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) {
+        return OrderedKeys.range(this.keys, prefix, startAfter, limit);
+    }
+
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) {
+        return OrderedKeys.scan(this.list(prefix), prefix, this::get);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) {
+        return this.scan(prefix).map(Map.Entry::getValue);
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new ExecutorAsyncKeyValueStorage(this, StorageExecutors.IO);
+    }
+
+    /**
+     * Rewrites live records of sealed segments, which have at least configured fraction of overwritten content, and
+     * removes these segments afterwards.
+     */
+    public void compact() throws DurabilityException {
+        List<Segment> candidates = this.segments.values().stream()
+                .filter(s -> s != this.active)
+                .filter(s -> s.garbageRatio() >= this.compactionThreshold)
+                .sorted((s1, s2) -> Integer.compare(s1.id, s2.id))
+                .collect(Collectors.toList());
+        for (Segment segment : candidates) {
+            this.compact(segment);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            this.compact();
+        } catch (DurabilityException | RuntimeException e) {
+            LOG.warn("Compaction of {} failed", this.root, e);
+        }
+    }
+
+    private void compact(Segment segment) throws DurabilityException {
+        LOG.debug("Compacting segment {} with garbage ratio {}", segment.path, segment.garbageRatio());
+        List<Map.Entry<String, Location>> live = this.index.entrySet().stream()
+                .filter(e -> e.getValue().segment == segment.id)
+                .collect(Collectors.toList());
+        List<Map.Entry<String, Location>> deleted = this.tombstones.entrySet().stream()
+                .filter(e -> e.getValue().segment == segment.id)
+                .collect(Collectors.toList());
+        // without older segments there is nothing left for tombstones to hide
+        boolean oldest = this.segments.keySet().stream().allMatch(id -> id >= segment.id);
+        for (Map.Entry<String, Location> entry : deleted) {
+            this.appendLock.lock();
+            try {
+                if (oldest) {
+                    this.tombstones.remove(entry.getKey(), entry.getValue());
+                } else if (entry.getValue().equals(this.tombstones.get(entry.getKey()))) {
+                    this.tombstone(entry.getKey(), this.appendTombstone(entry.getKey()));
+                }
+            } catch (IOException e) {
+                throw new DurabilityException(String.format("Cannot compact tombstone of key %s of segment %s", entry.getKey(), segment.path), e);
+            } finally {
+                this.appendLock.unlock();
+            }
+        }
+        for (Map.Entry<String, Location> entry : live) {
+            this.appendLock.lock();
+            try {
+                Location location = entry.getValue();
+                if (!location.equals(this.index.get(entry.getKey()))) {
+                    continue;
+                }
+                try (InputStream value = new RegionInputStream(segment.channel, location.offset, location.length, false)) {
+                    this.index(entry.getKey(), this.append(entry.getKey(), value));
+                }
+                if (this.active.size.get() >= this.segmentSize) {
+                    this.roll();
+                }
+            } catch (IOException e) {
+                throw new DurabilityException(String.format("Cannot compact key %s of segment %s", entry.getKey(), segment.path), e);
+            } finally {
+                this.appendLock.unlock();
+            }
+        }
+
+        this.segmentsLock.writeLock().lock();
+        try {
+            this.segments.remove(segment.id);
+            segment.channel.close();
+            Files.deleteIfExists(hintPath(segment.path));
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot remove compacted segment %s", segment.path), e);
+        } finally {
+            this.segmentsLock.writeLock().unlock();
+        }
+    }
+
+    private Location append(String key, InputStream value) throws IOException {
+        FileChannel channel = this.active.channel;
+        long recordOffset = this.active.size.get();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length);
+        header.putInt(keyBytes.length).putLong(0L).put(keyBytes).flip();
+        long position = recordOffset + writeFully(channel, header, recordOffset);
+
+        long valueOffset = position;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = value.read(buffer)) > 0) {
+            crc.update(buffer, 0, read);
+            position += writeFully(channel, ByteBuffer.wrap(buffer, 0, read), position);
+        }
+        long valueLength = position - valueOffset;
+
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        trailer.putInt((int) crc.getValue()).flip();
+        position += writeFully(channel, trailer, position);
+        ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+        length.putLong(valueLength).flip();
+        writeFully(channel, length, recordOffset + Integer.BYTES);
+
+        this.active.size.set(position);
+        return new Location(this.active.id, valueOffset, valueLength, position - recordOffset);
+    }
+
+    private Location appendTombstone(String key) throws IOException {
+        FileChannel channel = this.active.channel;
+        long recordOffset = this.active.size.get();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + TRAILER_SIZE);
+        record.putInt(keyBytes.length).putLong(TOMBSTONE).put(keyBytes).putInt((int) crc.getValue()).flip();
+        long position = recordOffset + writeFully(channel, record, recordOffset);
+
+        this.active.size.set(position);
+        return new Location(this.active.id, recordOffset + HEADER_SIZE + keyBytes.length, TOMBSTONE, position - recordOffset);
+    }
+
+    private void index(String key, Location location) {
+        this.segments.get(location.segment).live.addAndGet(location.recordSize);
+        Location previous = this.index.put(key, location);
+        if (previous == null) {
+            this.keys.add(key);
+        } else {
+            this.release(previous);
+        }
+        Optional.ofNullable(this.tombstones.remove(key)).ifPresent(this::release);
+    }
+
+    /**
+     * Tombstone counts as live content of its segment as long as it is the latest record of the key.
+     */
+    private void tombstone(String key, Location location) {
+        this.segments.get(location.segment).live.addAndGet(location.recordSize);
+        Location previous = this.index.remove(key);
+        if (previous != null) {
+            this.keys.remove(key);
+            this.release(previous);
+        }
+        Optional.ofNullable(this.tombstones.put(key, location)).ifPresent(this::release);
+    }
+
+    private void release(Location location) {
+        Optional.ofNullable(this.segments.get(location.segment)).ifPresent(s -> s.live.addAndGet(-location.recordSize));
+    }
+
+    private void roll() throws IOException {
+        Segment sealed = this.active;
+        this.writeHint(sealed);
+        this.active = this.openSegment(sealed.id + 1);
+        LOG.debug("Sealed segment {}, continuing with {}", sealed.path, this.active.path);
+    }
+
+    private void writeHint(Segment segment) throws IOException {
+        Path hint = hintPath(segment.path);
+        Path temporary = hint.resolveSibling(hint.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            for (Map.Entry<String, Location> entry : Iterables.concat(this.index.entrySet(), this.tombstones.entrySet())) {
+                Location location = entry.getValue();
+                if (location.segment == segment.id) {
+                    byte[] keyBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(keyBytes.length);
+                    out.write(keyBytes);
+                    out.writeLong(location.offset - HEADER_SIZE - keyBytes.length);
+                    out.writeLong(location.length);
+                }
+            }
+        }
+        Files.move(temporary, hint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void recover() throws IOException {
+        List<Integer> ids;
+        try (Stream<Path> files = Files.list(this.root)) {
+            ids = files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(SEGMENT_SUFFIX))
+                    .map(n -> Integer.parseInt(n.substring(0, n.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Integer id : ids) {
+            Segment segment = this.openSegment(id);
+            Path hint = hintPath(segment.path);
+            if (Files.exists(hint) && id < ids.get(ids.size() - 1)) {
+                this.loadHint(segment, hint);
+            } else {
+                this.scan(segment);
+            }
+        }
+        this.active = ids.isEmpty() ? this.openSegment(0) : this.segments.get(Iterables.getLast(ids));
+        LOG.debug("Recovered {} keys from {} segments of {}", this.index.size(), this.segments.size(), this.root);
+    }
+
+    private void loadHint(Segment segment, Path hint) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(hint)))) {
+            while (in.available() > 0) {
+                byte[] keyBytes = new byte[in.readInt()];
+                in.readFully(keyBytes);
+                long recordOffset = in.readLong();
+                long valueLength = in.readLong();
+                this.recover(new String(keyBytes, StandardCharsets.UTF_8), new Location(segment.id,
+                        recordOffset + HEADER_SIZE + keyBytes.length, valueLength,
+                        HEADER_SIZE + keyBytes.length + Math.max(valueLength, 0) + TRAILER_SIZE));
+            }
+        }
+    }
+
+    private void scan(Segment segment) throws IOException {
+        long position = 0;
+        long size = segment.channel.size();
+        while (position < size) {
+            Optional<Map.Entry<String, Location>> record = this.readRecord(segment, position, size);
+            if (record.isEmpty()) {
+                LOG.warn("Truncating torn record at {} of segment {}", position, segment.path);
+                segment.channel.truncate(position);
+                break;
+            }
+            this.recover(record.get().getKey(), record.get().getValue());
+            position += record.get().getValue().recordSize;
+        }
+        segment.size.set(position);
+    }
+
+    private void recover(String key, Location location) {
+        if (location.length == TOMBSTONE) {
+            this.tombstone(key, location);
+        } else {
+            this.index(key, location);
+        }
+    }
+
+    private Optional<Map.Entry<String, Location>> readRecord(Segment segment, long position, long size) throws IOException {
+        if (position + HEADER_SIZE > size) {
+            return Optional.empty();
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(segment.channel, header, position);
+        header.flip();
+        int keyLength = header.getInt();
+        long valueLength = header.getLong();
+        long recordSize = HEADER_SIZE + keyLength + Math.max(valueLength, 0) + TRAILER_SIZE;
+        if (keyLength < 0 || valueLength < TOMBSTONE || position + recordSize > size) {
+            return Optional.empty();
+        }
+        ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+        readFully(segment.channel, keyBuffer, position + HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(keyBuffer.array());
+        long valueOffset = position + HEADER_SIZE + keyLength;
+        try (InputStream value = new RegionInputStream(segment.channel, valueOffset, Math.max(valueLength, 0), false)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = value.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(segment.channel, trailer, valueOffset + Math.max(valueLength, 0));
+        trailer.flip();
+        if (trailer.getInt() != (int) crc.getValue()) {
+            return Optional.empty();
+        }
+        String key = new String(keyBuffer.array(), StandardCharsets.UTF_8);
+        return Optional.of(Maps.immutableEntry(key, new Location(segment.id, valueOffset, valueLength, recordSize)));
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Path path = this.root.resolve(String.format("%010d%s", id, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel, new AtomicLong(channel.size()), new AtomicLong());
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    private static Path hintPath(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return segmentPath.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + HINT_SUFFIX);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + read);
+            if (n < 0) {
+                throw new EOFException(String.format("Unexpected end of segment at %d", position + read));
+            }
+            read += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.compactor.shutdownNow();
+        this.appendLock.lock();
+        this.segmentsLock.writeLock().lock();
+        try {
+            for (Segment segment : this.segments.values()) {
+                segment.channel.close();
+            }
+        } finally {
+            this.segmentsLock.writeLock().unlock();
+            this.appendLock.unlock();
+            Builder.INSTANCES.remove(this.root, this);
+        }
+    }
+
+    @Override
+    public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
+        return new Metadata<>(this)
+                .withParameter("root", this.root.toFile().getAbsolutePath())
+                .withParameter("segmentSize", this.segmentSize)
+                .withParameter("compactionThreshold", this.compactionThreshold)
+                .withParameter("compactionInterval", this.compactionInterval);
+    }
+
+    @Override
+    public ComponentBuilder<? super KeyValueStorage> getBuilder() {
+        return new Builder();
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    @ToString
+    private static class Location {
+        private final int segment;
+        private final long offset;
+        private final long length;
+        private final long recordSize;
+    }
+
+    @AllArgsConstructor
+    private static class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong size;
+        private final AtomicLong live;
+
+        private double garbageRatio() {
+            long total = this.size.get();
+            return total == 0 ? 0.0 : 1.0 - (double) this.live.get() / total;
+        }
+    }
+
+    private static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private final boolean closeChannel;
+        private long position;
+        private long remaining;
+
+        private RegionInputStream(FileChannel channel, long position, long length, boolean closeChannel) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int n = this.channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, this.remaining)), this.position);
+            if (n > 0) {
+                this.position += n;
+                this.remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closeChannel) {
+                this.channel.close();
+            }
+        }
+    }
+
+    public static class Builder implements ComponentBuilder<KeyValueStorage> {
+
+        private final static ConcurrentMap<Path, LogStructuredKeyValueStorage> INSTANCES = Maps.newConcurrentMap();
+        private Path root;
+        private Integer segmentSize = 64 * 1024 * 1024;
+        private Double compactionThreshold = 0.5;
+        private Integer compactionInterval = 60;
+
+        @Override
+        public KeyValueStorage build() {
+            Preconditions.checkNotNull(root, "Root path must be set");
+            Preconditions.checkArgument(segmentSize > 0, "Segment size must be positive");
+            Preconditions.checkArgument(compactionInterval > 0, "Compaction interval must be positive");
+            Preconditions.checkArgument(compactionThreshold > 0 && compactionThreshold <= 1,
+                    "Compaction threshold must be in (0, 1], was %s", compactionThreshold);
+            // single instance per directory, as segments cannot be shared by concurrent writers
+            return INSTANCES.computeIfAbsent(root.toAbsolutePath().normalize(), r -> {
+                try {
+                    return new LogStructuredKeyValueStorage(r, segmentSize, compactionThreshold, compactionInterval);
+                } catch (IOException e) {
+                    throw new IllegalStateException(String.format("Cannot open log structured storage at %s", r), e);
+                }
+            });
+        }
+
+        public Builder root(String root) {
+            this.root = Path.of(root);
+            return this;
+        }
+
+        public Builder root(File root) {
+            this.root = Path.of(root.toURI());
+            return this;
+        }
+
+        public Builder root(Path root) {
+            this.root = root;
+            return this;
+        }
+
+        public Builder segmentSize(Integer segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Fraction of overwritten content of sealed segment, which makes it eligible for compaction, in (0, 1].
+         */
+        public Builder compactionThreshold(Double compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * Delay in seconds between background compaction runs.
+         */
+        public Builder compactionInterval(Integer compactionInterval) {
+            this.compactionInterval = compactionInterval;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.text.RandomStringGenerator;
+import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory storage keeping values outside of the heap, in direct memory slabs allocated up to configured capacity.
+ * Every value occupies single contiguous region of a slab, so it cannot be larger than a slab. Freed regions are merged
+ * with their free neighbours and reused first fit.
+ * <p>
+ * {@link #getStream(String)} exposes stored region directly and pins it, so that region of overwritten or deleted key
+ * is released only once all its streams are closed. {@link #getBuffer(String)} cannot be closed, hence it returns a
+ * copy.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public class OffHeapKeyValueStorage implements KeyValueStorage {
+    private static final int ALIGNMENT = Long.BYTES;
+
+    private final String name;
+    private final Arena arena;
+
+    private OffHeapKeyValueStorage(String name, Arena arena) {
+        this.name = name;
+        this.arena = arena;
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws DurabilityException {
+        this.arena.put(key, ByteBuffer.wrap(value));
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        try {
+            this.arena.put(key, ByteBuffer.wrap(value.readAllBytes()));
+        } catch (IOException e) {
+            throw new DurabilityException(String.format("Cannot read stream for key %s", key), e);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            this.arena.put(entry.getKey(), ByteBuffer.wrap(entry.getValue()));
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(String key) {
+        return this.arena.copy(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        this.arena.remove(key);
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) {
+        Map<String, byte[]> result = Maps.newHashMapWithExpectedSize(keys.size());
+        keys.forEach(key -> this.arena.copy(key).ifPresent(value -> result.put(key, value)));
+        return result;
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) {
+        return this.arena.pin(key).map(region -> new ByteBufferInputStream(this.arena.view(region), () -> this.arena.unpin(region)));
+    }
+
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) {
+        return this.arena.copy(key).map(value -> ByteBuffer.wrap(value).asReadOnlyBuffer());
+    }
+
+    @Override
+    public Iterator<String> list() {
+        return this.list("");
+    }
+
+    @Override
+    public Iterator<String> list(String prefix) {
+        return OrderedKeys.list(this.arena.index.navigableKeySet(), prefix);
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) {
+        return OrderedKeys.range(this.arena.index.navigableKeySet(), prefix, startAfter, limit);
+    }
+
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) {
+        return OrderedKeys.scan(this.list(prefix), prefix, this.arena::copy);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) {
+        return this.scan(prefix).map(Map.Entry::getValue);
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new ExecutorAsyncKeyValueStorage(this, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @return maximal number of bytes, which can be reserved for slabs
+     */
+    public long getCapacity() {
+        return this.arena.capacity;
+    }
+
+    /**
+     * @return number of bytes of direct memory reserved by allocated slabs
+     */
+    public long getReserved() {
+        return (long) this.arena.slabs.size() * this.arena.slabSize;
+    }
+
+    /**
+     * @return number of bytes occupied by stored values, including alignment
+     */
+    public long getUsed() {
+        return this.arena.used.get();
+    }
+
+    @Override
+    public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
+        return new Metadata<>(this)
+                .withParameter("name", this.name)
+                .withParameter("capacity", this.arena.capacity)
+                .withParameter("slabSize", this.arena.slabSize);
+    }
+
+    @Override
+    public ComponentBuilder<? super KeyValueStorage> getBuilder() {
+        return new Builder();
+    }
+
+    private static class Region {
+        private final int slab;
+        private final int offset;
+        private final int length;
+        private final AtomicInteger pins = new AtomicInteger();
+        private boolean retired;
+
+        private Region(int slab, int offset, int length) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private int allocated() {
+            return (this.length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        }
+    }
+
+    private static class Arena {
+        private final long capacity;
+        private final int slabSize;
+        private final List<ByteBuffer> slabs = new CopyOnWriteArrayList<>();
+        private final List<TreeMap<Integer, Integer>> free = Lists.newArrayList();
+        private final ConcurrentNavigableMap<String, Region> index = new ConcurrentSkipListMap<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final AtomicLong used = new AtomicLong();
+
+        private Arena(long capacity, int slabSize) {
+            this.capacity = capacity;
+            this.slabSize = slabSize;
+        }
+
+        private void put(String key, ByteBuffer value) throws DurabilityException {
+            if (value.remaining() > this.slabSize) {
+                throw new DurabilityException(String.format("Value of key %s with %d bytes exceeds slab size %d",
+                        key, value.remaining(), this.slabSize));
+            }
+            this.lock.writeLock().lock();
+            try {
+                Region previous = this.index.get(key);
+                Region region;
+                try {
+                    region = this.allocate(value.remaining());
+                } catch (DurabilityException e) {
+                    if (previous == null || previous.pins.get() > 0) {
+                        throw e;
+                    }
+                    // space of replaced value may be just enough, its content is intact until new one is written
+                    this.release(previous);
+                    try {
+                        region = this.allocate(value.remaining());
+                    } catch (DurabilityException again) {
+                        this.reserve(previous);
+                        throw again;
+                    }
+                    previous = null;
+                }
+                this.view(region, false).put(value);
+                this.index.put(key, region);
+                if (previous != null) {
+                    this.retire(previous);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        private void remove(String key) {
+            this.lock.writeLock().lock();
+            try {
+                Region previous = this.index.remove(key);
+                if (previous != null) {
+                    this.retire(previous);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        private Optional<Region> pin(String key) {
+            this.lock.readLock().lock();
+            try {
+                Optional<Region> region = Optional.ofNullable(this.index.get(key));
+                region.ifPresent(r -> r.pins.incrementAndGet());
+                return region;
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        private void unpin(Region region) {
+            this.lock.writeLock().lock();
+            try {
+                if (region.pins.decrementAndGet() == 0 && region.retired) {
+                    this.release(region);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        private void retire(Region region) {
+            if (region.pins.get() > 0) {
+                region.retired = true;
+            } else {
+                this.release(region);
+            }
+        }
+
+        private Optional<byte[]> copy(String key) {
+            this.lock.readLock().lock();
+            try {
+                return Optional.ofNullable(this.index.get(key)).map(region -> {
+                    byte[] result = new byte[region.length];
+                    this.view(region).get(result);
+                    return result;
+                });
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        private ByteBuffer view(Region region) {
+            return this.view(region, true);
+        }
+
+        private ByteBuffer view(Region region, boolean readOnly) {
+            ByteBuffer slab = readOnly ? this.slabs.get(region.slab).asReadOnlyBuffer() : this.slabs.get(region.slab).duplicate();
+            slab.position(region.offset).limit(region.offset + region.length);
+            return slab.slice();
+        }
+
+        private Region allocate(int length) throws DurabilityException {
+            int size = Math.max((length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT, ALIGNMENT);
+            for (int slab = 0; slab < this.free.size(); slab++) {
+                Optional<Region> region = this.allocate(slab, length, size);
+                if (region.isPresent()) {
+                    return region.get();
+                }
+            }
+            if ((long) (this.slabs.size() + 1) * this.slabSize > this.capacity) {
+                throw new DurabilityException(String.format("Cannot allocate %d bytes, off heap capacity %d is exhausted", size, this.capacity));
+            }
+            this.slabs.add(ByteBuffer.allocateDirect(this.slabSize));
+            TreeMap<Integer, Integer> slabFree = Maps.newTreeMap();
+            slabFree.put(0, this.slabSize);
+            this.free.add(slabFree);
+            return this.allocate(this.free.size() - 1, length, size).orElseThrow();
+        }
+
+        private Optional<Region> allocate(int slab, int length, int size) {
+            TreeMap<Integer, Integer> slabFree = this.free.get(slab);
+            for (Map.Entry<Integer, Integer> block : slabFree.entrySet()) {
+                if (block.getValue() >= size) {
+                    slabFree.remove(block.getKey());
+                    if (block.getValue() > size) {
+                        slabFree.put(block.getKey() + size, block.getValue() - size);
+                    }
+                    this.used.addAndGet(size);
+                    return Optional.of(new Region(slab, block.getKey(), length));
+                }
+            }
+            return Optional.empty();
+        }
+
+        private void release(Region region) {
+            TreeMap<Integer, Integer> slabFree = this.free.get(region.slab);
+            int offset = region.offset;
+            int size = Math.max(region.allocated(), ALIGNMENT);
+            this.used.addAndGet(-size);
+            Map.Entry<Integer, Integer> before = slabFree.lowerEntry(offset);
+            if (before != null && before.getKey() + before.getValue() == offset) {
+                slabFree.remove(before.getKey());
+                offset = before.getKey();
+                size += before.getValue();
+            }
+            Integer after = slabFree.get(offset + size);
+            if (after != null) {
+                slabFree.remove(offset + size);
+                size += after;
+            }
+            slabFree.put(offset, size);
+        }
+
+        private void reserve(Region region) {
+            TreeMap<Integer, Integer> slabFree = this.free.get(region.slab);
+            int size = Math.max(region.allocated(), ALIGNMENT);
+            Map.Entry<Integer, Integer> block = slabFree.floorEntry(region.offset);
+            slabFree.remove(block.getKey());
+            if (block.getKey() < region.offset) {
+                slabFree.put(block.getKey(), region.offset - block.getKey());
+            }
+            int end = region.offset + size;
+            if (block.getKey() + block.getValue() > end) {
+                slabFree.put(end, block.getKey() + block.getValue() - end);
+            }
+            this.used.addAndGet(size);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private final Runnable onClose;
+        private boolean closed;
+
+        private ByteBufferInputStream(ByteBuffer buffer, Runnable onClose) {
+            this.buffer = buffer;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                this.onClose.run();
+            }
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+
+    public static class Builder implements ComponentBuilder<KeyValueStorage> {
+
+        private final static ConcurrentMap<String, Arena> ARENAS = Maps.newConcurrentMap();
+        private String name;
+        private Long capacity = 1024L * 1024 * 1024;
+        private Integer slabSize = 64 * 1024 * 1024;
+
+        @Override
+        public KeyValueStorage build() {
+            Preconditions.checkArgument(slabSize > 0, "Slab size must be positive");
+            Preconditions.checkArgument(capacity >= slabSize, "Capacity must fit at least one slab");
+            String name = Optional.ofNullable(this.name)
+                    .orElse(new RandomStringGenerator.Builder().withinRange('a', 'z').build().generate(40));
+            return new OffHeapKeyValueStorage(name, ARENAS.computeIfAbsent(name, n -> new Arena(capacity, slabSize)));
+        }
+
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Maximal number of bytes of direct memory, which can be reserved.
+         */
+        public Builder capacity(Long capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Size of single direct memory slab, which limits the size of stored value as well.
+         */
+        public Builder slabSize(Integer slabSize) {
+            this.slabSize = slabSize;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+import org.mlops4j.api.exception.StreamException;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+
+/**
+ * Prefix and range lookups over sorted key set, costing logarithmic time to find first key and constant time per
+ * every listed key.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+final class OrderedKeys {
+
+    private OrderedKeys() {
+    }
+
+    static Iterator<String> list(NavigableSet<String> keys, String prefix) {
+        return range(keys, prefix, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads listed keys one by one as they are iterated, skipping keys removed since they have been listed. Read
+     * failures are thrown as {@link StreamException}.
+     */
+    static CloseableIterator<Map.Entry<String, byte[]>> scan(Iterator<String> keys, String prefix, KeyReader reader) {
+        String namespace = prefix.isEmpty() ? prefix : prefix + "/";
+        return CloseableIterator.of(new AbstractIterator<>() {
+            @Override
+            protected Map.Entry<String, byte[]> computeNext() {
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    try {
+                        Optional<byte[]> value = reader.get(namespace + key);
+                        if (value.isPresent()) {
+                            return Maps.immutableEntry(key, value.get());
+                        }
+                    } catch (DurabilityException e) {
+                        throw new StreamException(e);
+                    }
+                }
+                return this.endOfData();
+            }
+        });
+    }
+
+    @FunctionalInterface
+    interface KeyReader {
+        Optional<byte[]> get(String key) throws DurabilityException;
+    }
+
+    static Iterator<String> range(NavigableSet<String> keys, String prefix, String startAfter, int limit) {
+        // prefix denotes directory-like namespace, so only keys followed by separator belong to it
+        String namespace = prefix.isEmpty() ? prefix : prefix + "/";
+        NavigableSet<String> tail = startAfter == null
+                ? keys.tailSet(namespace, true)
+                : keys.tailSet(namespace + startAfter, false);
+        return tail.stream()
+                .takeWhile(k -> k.startsWith(namespace))
+                .limit(limit)
+                .map(k -> k.substring(namespace.length()))
+                .iterator();
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Pack files of a file system storage, each holding values of many keys in a data file next to an index of keys sorted
+ * in their order. Indexes are memory mapped and searched in place, so looking a key up does not open any file.
+ * <p>
+ * Pack is published by renaming its index into place, after both files have been forced. Later packs take precedence
+ * over earlier ones. Removed keys are marked in every index holding them, so a pack never brings a removed value back.
+ * Packs are shared by all storages of the same root in the JVM, which must be the only writer of the root.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+final class PackFiles {
+    private static final Logger LOG = LoggerFactory.getLogger(PackFiles.class);
+    static final String DIRECTORY = ".packs";
+    private static final String DATA_SUFFIX = ".data";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int MAGIC = 0x7061636b;
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final int REMOVED = -1;
+
+    private final Path directory;
+    // newest first
+    private final List<Pack> packs;
+    private final AtomicInteger sequence;
+    private ScheduledExecutorService packer;
+
+    private PackFiles(Path directory, List<Pack> packs, int sequence) {
+        this.directory = directory;
+        this.packs = new CopyOnWriteArrayList<>(packs);
+        this.sequence = new AtomicInteger(sequence);
+    }
+
+    /**
+     * Maps indexes of published packs and removes files left behind by packing interrupted before publishing.
+     */
+    static PackFiles open(Path root) throws IOException {
+        Path directory = root.resolve(DIRECTORY);
+        List<Pack> packs = Lists.newArrayList();
+        int sequence = 0;
+        if (Files.isDirectory(directory)) {
+            List<Path> files;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                files = Lists.newArrayList(stream);
+            }
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(INDEX_SUFFIX) && !name.startsWith(".")) {
+                    Pack pack = Pack.open(directory, Integer.parseInt(name.substring(0, name.length() - INDEX_SUFFIX.length())));
+                    packs.add(pack);
+                    sequence = Math.max(sequence, pack.sequence);
+                } else if (name.startsWith(".") || !Files.exists(indexOf(directory, name))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        packs.sort(Comparator.comparingInt((Pack p) -> p.sequence).reversed());
+        return new PackFiles(directory, packs, sequence);
+    }
+
+    private static Path indexOf(Path directory, String dataName) {
+        return directory.resolve(dataName.substring(0, Math.max(dataName.length() - DATA_SUFFIX.length(), 0)) + INDEX_SUFFIX);
+    }
+
+    boolean isEmpty() {
+        return this.packs.isEmpty();
+    }
+
+    /**
+     * @return read only view of the packed value, valid as long as the storage is in use
+     */
+    Optional<ByteBuffer> get(String key) {
+        for (Pack pack : this.packs) {
+            int entry = pack.find(key);
+            if (entry >= 0) {
+                return Optional.ofNullable(pack.value(entry));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return packed keys in namespace after {@code startAfter}, relative to the namespace, in their order and without
+     * duplicates
+     */
+    Iterator<String> keys(String namespace, String startAfter) {
+        String from = namespace + Optional.ofNullable(startAfter).orElse("");
+        List<Iterator<String>> keys = this.packs.stream().map(pack -> pack.keys(from)).collect(Collectors.toList());
+        PeekingIterator<String> merged = Iterators.peekingIterator(distinct(keys));
+        return new AbstractIterator<>() {
+            @Override
+            protected String computeNext() {
+                while (merged.hasNext() && merged.peek().startsWith(namespace)) {
+                    String key = merged.next().substring(namespace.length());
+                    if (startAfter == null || key.compareTo(startAfter) > 0) {
+                        return key;
+                    }
+                }
+                return this.endOfData();
+            }
+        };
+    }
+
+    /**
+     * Merges sorted iterators, dropping keys present in more than one of them.
+     */
+    static Iterator<String> distinct(List<Iterator<String>> sorted) {
+        PeekingIterator<String> merged = Iterators.peekingIterator(Iterators.mergeSorted(sorted, Comparator.naturalOrder()));
+        return new AbstractIterator<>() {
+            @Override
+            protected String computeNext() {
+                if (!merged.hasNext()) {
+                    return this.endOfData();
+                }
+                String key = merged.next();
+                while (merged.hasNext() && merged.peek().equals(key)) {
+                    merged.next();
+                }
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Marks the key removed in every pack. Caller holds lock of the key.
+     */
+    void remove(String key, boolean force) {
+        for (Pack pack : this.packs) {
+            pack.remove(key, force);
+        }
+    }
+
+    /**
+     * Writes entries sorted by key into a new pack and publishes it.
+     */
+    Pack write(List<Map.Entry<String, byte[]>> entries) throws IOException {
+        Files.createDirectories(this.directory);
+        int sequence = this.sequence.incrementAndGet();
+        String name = String.format("%08d", sequence);
+        Path data = this.directory.resolve(name + DATA_SUFFIX);
+        Path index = this.directory.resolve(name + INDEX_SUFFIX);
+        Path temporaryData = this.directory.resolve("." + name + DATA_SUFFIX);
+        Path temporaryIndex = this.directory.resolve("." + name + INDEX_SUFFIX);
+        try {
+            int keyBytes = 0;
+            try (FileChannel channel = FileChannel.open(temporaryData, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel));
+                for (Map.Entry<String, byte[]> entry : entries) {
+                    output.write(entry.getValue());
+                    keyBytes += entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+                }
+                output.flush();
+                channel.force(true);
+            }
+            try (FileChannel channel = FileChannel.open(temporaryIndex, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                output.writeInt(MAGIC);
+                output.writeInt(entries.size());
+                int position = HEADER + entries.size() * Integer.BYTES;
+                for (Map.Entry<String, byte[]> entry : entries) {
+                    output.writeInt(position);
+                    position += Integer.BYTES + entry.getKey().getBytes(StandardCharsets.UTF_8).length + Long.BYTES + Integer.BYTES;
+                }
+                long offset = 0;
+                for (Map.Entry<String, byte[]> entry : entries) {
+                    byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    output.writeInt(key.length);
+                    output.write(key);
+                    output.writeLong(offset);
+                    output.writeInt(entry.getValue().length);
+                    offset += entry.getValue().length;
+                }
+                output.flush();
+                channel.force(true);
+            }
+            Files.move(temporaryData, data, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(temporaryIndex, index, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(this.directory);
+        } finally {
+            Files.deleteIfExists(temporaryData);
+            Files.deleteIfExists(temporaryIndex);
+        }
+        Pack pack = Pack.open(this.directory, sequence);
+        this.packs.add(0, pack);
+        LOG.debug("Published pack {} with {} keys", index, entries.size());
+        return pack;
+    }
+
+    /**
+     * Removes packs, which have all their keys removed.
+     */
+    void prune() throws IOException {
+        for (Pack pack : this.packs) {
+            if (pack.live.get() == 0) {
+                this.packs.remove(pack);
+                // mapping of concurrent readers stays valid after the files are removed
+                Files.deleteIfExists(pack.index);
+                Files.deleteIfExists(pack.data);
+            }
+        }
+    }
+
+    /**
+     * Runs packing task periodically, once per root however many storages ask for it.
+     */
+    synchronized void schedule(Runnable task, int interval) {
+        if (this.packer != null) {
+            return;
+        }
+        this.packer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mlops4j-packing-" + this.directory.getParent().getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.packer.scheduleWithFixedDelay(task, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on some platforms
+        }
+    }
+
+    /**
+     * Index is a header with magic and number of entries, followed by positions of entries and the entries in order of
+     * their keys. Every entry is length of the key, its UTF-8 bytes, offset of the value in data file and length of the
+     * value, which is {@value #REMOVED} once the key is removed.
+     */
+    static final class Pack {
+        private final int sequence;
+        private final Path data;
+        private final Path index;
+        private final ByteBuffer values;
+        private final MappedByteBuffer entries;
+        private final int count;
+        private final AtomicInteger live = new AtomicInteger();
+
+        private Pack(int sequence, Path data, Path index, ByteBuffer values, MappedByteBuffer entries) throws IOException {
+            this.sequence = sequence;
+            this.data = data;
+            this.index = index;
+            this.values = values;
+            this.entries = entries;
+            if (entries.capacity() < HEADER || entries.getInt(0) != MAGIC) {
+                throw new IOException(String.format("File %s is not a pack index", index));
+            }
+            this.count = entries.getInt(Integer.BYTES);
+            for (int i = 0; i < this.count; i++) {
+                if (this.length(i) != REMOVED) {
+                    this.live.incrementAndGet();
+                }
+            }
+        }
+
+        private static Pack open(Path directory, int sequence) throws IOException {
+            String name = String.format("%08d", sequence);
+            Path data = directory.resolve(name + DATA_SUFFIX);
+            Path index = directory.resolve(name + INDEX_SUFFIX);
+            // mappings stay valid after channels are closed
+            try (FileChannel dataChannel = FileChannel.open(data, StandardOpenOption.READ);
+                 FileChannel indexChannel = FileChannel.open(index, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Pack(sequence, data, index,
+                        dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size()),
+                        indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size()));
+            }
+        }
+
+        int size() {
+            return this.count;
+        }
+
+        private int position(int entry) {
+            return this.entries.getInt(HEADER + entry * Integer.BYTES);
+        }
+
+        private String key(int entry) {
+            int position = this.position(entry);
+            byte[] key = new byte[this.entries.getInt(position)];
+            ByteBuffer view = this.entries.duplicate();
+            view.position(position + Integer.BYTES);
+            view.get(key);
+            return new String(key, StandardCharsets.UTF_8);
+        }
+
+        private int lengthPosition(int entry) {
+            int position = this.position(entry);
+            return position + Integer.BYTES + this.entries.getInt(position) + Long.BYTES;
+        }
+
+        private int length(int entry) {
+            return this.entries.getInt(this.lengthPosition(entry));
+        }
+
+        /**
+         * @return entry of the key, or {@code -(insertion point) - 1} if there is none
+         */
+        private int find(String key) {
+            int low = 0;
+            int high = this.count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = this.key(middle).compareTo(key);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * @return view of the value, null if the key is removed
+         */
+        private ByteBuffer value(int entry) {
+            int length = this.length(entry);
+            if (length == REMOVED) {
+                return null;
+            }
+            long offset = this.entries.getLong(this.lengthPosition(entry) - Long.BYTES);
+            ByteBuffer view = this.values.asReadOnlyBuffer();
+            view.position((int) offset).limit((int) offset + length);
+            return view.slice();
+        }
+
+        private Iterator<String> keys(String from) {
+            int found = this.find(from);
+            int start = found >= 0 ? found : -found - 1;
+            return new AbstractIterator<>() {
+                private int entry = start;
+
+                @Override
+                protected String computeNext() {
+                    while (this.entry < count) {
+                        int current = this.entry++;
+                        if (length(current) != REMOVED) {
+                            return key(current);
+                        }
+                    }
+                    return this.endOfData();
+                }
+            };
+        }
+
+        void remove(String key, boolean force) {
+            int entry = this.find(key);
+            if (entry >= 0 && this.length(entry) != REMOVED) {
+                this.entries.putInt(this.lengthPosition(entry), REMOVED);
+                this.live.decrementAndGet();
+                if (force) {
+                    this.entries.force();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.collect.Maps;
+import org.mlops4j.storage.api.exception.DurabilityException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Loads shared by concurrent callers of the same key. The first caller runs the load, callers coming while it is in
+ * flight wait for its result or failure instead of loading again. Nothing is kept once the load is done, so later
+ * callers load again.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public final class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = Maps.newConcurrentMap();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    public V load(K key, Loader<V> loader) throws DurabilityException {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> shared = this.inFlight.putIfAbsent(key, own);
+        if (shared != null) {
+            this.deduplicated.incrementAndGet();
+            try {
+                return shared.join();
+            } catch (CompletionException e) {
+                throw DurabilityException.of(e);
+            }
+        }
+        this.loads.incrementAndGet();
+        try {
+            V value = loader.load();
+            own.complete(value);
+            return value;
+        } catch (DurabilityException | RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, own);
+        }
+    }
+
+    public CompletableFuture<V> loadAsync(K key, Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> shared = this.inFlight.putIfAbsent(key, own);
+        if (shared != null) {
+            this.deduplicated.incrementAndGet();
+            return shared;
+        }
+        this.loads.incrementAndGet();
+        loader.get().whenComplete((value, e) -> {
+            this.inFlight.remove(key, own);
+            if (e != null) {
+                own.completeExceptionally(e);
+            } else {
+                own.complete(value);
+            }
+        });
+        return own;
+    }
+
+    /**
+     * Detaches load in flight from the key, so that callers coming afterwards run a new one. Used when the loaded
+     * value changes.
+     */
+    public void forget(K key) {
+        this.inFlight.remove(key);
+    }
+
+    /**
+     * @return number of loads actually run
+     */
+    public long getLoadCount() {
+        return this.loads.get();
+    }
+
+    /**
+     * @return number of callers, which got result of a load run by another caller
+     */
+    public long getDeduplicatedCount() {
+        return this.deduplicated.get();
+    }
+
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws DurabilityException;
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshots of content of an in memory storage together with log of changes made since the last snapshot, so the
+ * content is restored when the storage is built again after a restart.
+ * <p>
+ * Every change is appended to the log before it is applied to the content, both under lock of the key, so the log
+ * keeps order of changes of every key. Snapshot of generation {@code n} starts log {@code n} and covers all changes of
+ * earlier logs, which are removed once the snapshot is written. Changes done while the snapshot is being written land
+ * in log {@code n} and are applied again on restore.
+ * <p>
+ * Snapshot is written in sections listed at the end of the file, which are loaded in parallel. Log is flushed to the
+ * operating system with every change, so it survives crash of the process, but not of the machine.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+final class SnapshotLog {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotLog.class);
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String LOG_PREFIX = "log-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAGIC = 0x736e6170;
+    private static final long REMOVED = -1;
+    private static final int SECTION_SIZE = 8 * 1024 * 1024;
+
+    private final Path directory;
+    private final ConcurrentNavigableMap<String, byte[]> content;
+    private final Striped<Lock> locks = Striped.lock(1024);
+    // changes hold read lock, switching to the next log holds write lock
+    private final ReadWriteLock switching = new ReentrantReadWriteLock();
+    private final Object appending = new Object();
+    private long generation;
+    private DataOutputStream log;
+    private ScheduledExecutorService snapshotter;
+
+    private SnapshotLog(Path directory, ConcurrentNavigableMap<String, byte[]> content) {
+        this.directory = directory;
+        this.content = content;
+    }
+
+    /**
+     * Loads the latest snapshot in parallel on the executor and applies logs written since then to the content, then
+     * starts a new log.
+     */
+    static SnapshotLog open(Path directory, ConcurrentNavigableMap<String, byte[]> content, Executor executor) throws IOException {
+        Files.createDirectories(directory);
+        long snapshot = -1;
+        List<Long> logs = Lists.newArrayList();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(".")) {
+                    // snapshot interrupted before it has been renamed into place
+                    Files.deleteIfExists(file);
+                } else if (name.startsWith(SNAPSHOT_PREFIX)) {
+                    snapshot = Math.max(snapshot, generation(name, SNAPSHOT_PREFIX));
+                } else if (name.startsWith(LOG_PREFIX)) {
+                    logs.add(generation(name, LOG_PREFIX));
+                }
+            }
+        }
+        SnapshotLog snapshotLog = new SnapshotLog(directory, content);
+        if (snapshot >= 0) {
+            long entries = snapshotLog.load(snapshotLog.snapshotFile(snapshot), executor);
+            LOG.debug("Loaded {} entries of snapshot {} of {}", entries, snapshot, directory);
+        }
+        logs.sort(Long::compare);
+        long last = Math.max(snapshot, 0);
+        for (long log : logs) {
+            if (log >= snapshot) {
+                snapshotLog.replay(snapshotLog.logFile(log));
+            }
+            last = Math.max(last, log);
+        }
+        snapshotLog.generation = last + 1;
+        snapshotLog.log = snapshotLog.openLog(snapshotLog.generation);
+        return snapshotLog;
+    }
+
+    private static long generation(String name, String prefix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+    }
+
+    private Path snapshotFile(long generation) {
+        return this.directory.resolve(String.format("%s%016d%s", SNAPSHOT_PREFIX, generation, SUFFIX));
+    }
+
+    private Path logFile(long generation) {
+        return this.directory.resolve(String.format("%s%016d%s", LOG_PREFIX, generation, SUFFIX));
+    }
+
+    private DataOutputStream openLog(long generation) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.logFile(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+    }
+
+    void put(String key, byte[] value) throws IOException {
+        this.change(key, value, () -> this.content.put(key, value));
+    }
+
+    void remove(String key) throws IOException {
+        this.change(key, null, () -> this.content.remove(key));
+    }
+
+    private void change(String key, byte[] value, Runnable apply) throws IOException {
+        Lock lock = this.locks.get(key);
+        this.switching.readLock().lock();
+        lock.lock();
+        try {
+            this.append(key, value);
+            apply.run();
+        } finally {
+            lock.unlock();
+            this.switching.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends record of key length, value length or {@value #REMOVED}, key, value and CRC32 of key and value.
+     */
+    private void append(String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        if (value != null) {
+            crc.update(value);
+        }
+        synchronized (this.appending) {
+            this.log.writeInt(keyBytes.length);
+            this.log.writeLong(value == null ? REMOVED : value.length);
+            this.log.write(keyBytes);
+            if (value != null) {
+                this.log.write(value);
+            }
+            this.log.writeInt((int) crc.getValue());
+            this.log.flush();
+        }
+    }
+
+    /**
+     * Applies records of the log in order, stopping at the first one torn by a crash.
+     */
+    private void replay(Path file) throws IOException {
+        long records = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int keyLength;
+                try {
+                    keyLength = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                long valueLength = input.readLong();
+                if (keyLength < 0 || valueLength < REMOVED || valueLength > Integer.MAX_VALUE) {
+                    throw new EOFException(String.format("Corrupted record at %d", records));
+                }
+                byte[] key = input.readNBytes(keyLength);
+                byte[] value = valueLength == REMOVED ? null : input.readNBytes((int) valueLength);
+                CRC32 crc = new CRC32();
+                crc.update(key);
+                if (value != null) {
+                    crc.update(value);
+                }
+                if (key.length != keyLength || (value != null && value.length != valueLength)
+                        || input.readInt() != (int) crc.getValue()) {
+                    throw new EOFException(String.format("Torn record at %d", records));
+                }
+                String decoded = new String(key, StandardCharsets.UTF_8);
+                if (value == null) {
+                    this.content.remove(decoded);
+                } else {
+                    this.content.put(decoded, value);
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            LOG.warn("Log {} ends with incomplete record, {} records applied", file, records, e);
+        }
+    }
+
+    /**
+     * Writes snapshot of the content and removes snapshots and logs it covers.
+     *
+     * @return number of written entries
+     */
+    synchronized long snapshot() throws IOException {
+        long generation;
+        this.switching.writeLock().lock();
+        try {
+            generation = this.generation + 1;
+            DataOutputStream next = this.openLog(generation);
+            this.log.close();
+            this.log = next;
+            this.generation = generation;
+        } finally {
+            this.switching.writeLock().unlock();
+        }
+        Path file = this.snapshotFile(generation);
+        Path temporary = this.directory.resolve("." + file.getFileName());
+        long entries = 0;
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                output.writeInt(MAGIC);
+                List<Long> sections = Lists.newArrayList();
+                long position = Integer.BYTES;
+                long sectionSize = SECTION_SIZE;
+                for (Map.Entry<String, byte[]> entry : this.content.entrySet()) {
+                    if (sectionSize >= SECTION_SIZE) {
+                        sections.add(position);
+                        sectionSize = 0;
+                    }
+                    byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    output.writeInt(key.length);
+                    output.write(key);
+                    output.writeInt(entry.getValue().length);
+                    output.write(entry.getValue());
+                    long size = 2 * Integer.BYTES + key.length + entry.getValue().length;
+                    position += size;
+                    sectionSize += size;
+                    entries++;
+                }
+                sections.add(position);
+                for (long section : sections) {
+                    output.writeLong(section);
+                }
+                output.writeInt(sections.size());
+                output.writeInt(MAGIC);
+                output.flush();
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path previous : files) {
+                String name = previous.getFileName().toString();
+                if ((name.startsWith(SNAPSHOT_PREFIX) && generation(name, SNAPSHOT_PREFIX) < generation)
+                        || (name.startsWith(LOG_PREFIX) && generation(name, LOG_PREFIX) < generation)) {
+                    Files.deleteIfExists(previous);
+                }
+            }
+        }
+        LOG.debug("Written snapshot {} of {} with {} entries", generation, this.directory, entries);
+        return entries;
+    }
+
+    /**
+     * Reads footer with offsets of sections, of which the last one marks end of entries, then loads every section on
+     * the executor.
+     */
+    private long load(Path file, Executor executor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer trailer = read(channel, size - 2 * Integer.BYTES, 2 * Integer.BYTES);
+            int count = trailer.getInt();
+            if (trailer.getInt() != MAGIC || count < 1) {
+                throw new IOException(String.format("File %s is not a snapshot", file));
+            }
+            ByteBuffer footer = read(channel, size - 2 * Integer.BYTES - (long) count * Long.BYTES, count * Long.BYTES);
+            long[] sections = new long[count];
+            for (int i = 0; i < count; i++) {
+                sections[i] = footer.getLong();
+            }
+            CompletableFuture<?>[] loads = new CompletableFuture<?>[count - 1];
+            long[] entries = new long[count - 1];
+            for (int i = 0; i < count - 1; i++) {
+                int section = i;
+                loads[i] = CompletableFuture.runAsync(() -> {
+                    try {
+                        entries[section] = this.load(read(channel, sections[section], (int) (sections[section + 1] - sections[section])));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+            }
+            try {
+                CompletableFuture.allOf(loads).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            long total = 0;
+            for (long loaded : entries) {
+                total += loaded;
+            }
+            return total;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private long load(ByteBuffer section) {
+        long entries = 0;
+        while (section.hasRemaining()) {
+            byte[] key = new byte[section.getInt()];
+            section.get(key);
+            byte[] value = new byte[section.getInt()];
+            section.get(value);
+            this.content.put(new String(key, StandardCharsets.UTF_8), value);
+            entries++;
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException(String.format("Unexpected end of snapshot at %d", position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Writes snapshots periodically, once per storage however many instances ask for it.
+     */
+    synchronized void schedule(int interval) {
+        if (this.snapshotter != null) {
+            return;
+        }
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mlops4j-snapshot-" + this.directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                this.snapshot();
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Snapshot of {} failed", this.directory, e);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+}
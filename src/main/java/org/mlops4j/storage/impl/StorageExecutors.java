@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors shared by storages for blocking I/O, so it never runs on compute threads of the common pool.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+final class StorageExecutors {
+
+    static final ExecutorService IO = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("mlops4j-storage-io-%d").setDaemon(true).build());
+
+    private StorageExecutors() {
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.api.exception.StreamException;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Storage spreading keys across shards, typically file system storages on separate disks, by consistent hashing.
+ * Every shard owns a number of virtual nodes on the hash ring, so adding a shard moves only keys falling to its nodes.
+ * Batches are split by shard and run on all shards in parallel, listings of all shards are merged.
+ * <p>
+ * Shards are added at the end of the list. Until {@link #rebalance()} moves keys to their new shards, keys not found in
+ * their shard are read from the shard owning them before the addition. Number of such settled shards is persisted.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public class StripedKeyValueStorage implements KeyValueStorage {
+    private final static Logger LOG = LoggerFactory.getLogger(StripedKeyValueStorage.class);
+
+    private final List<KeyValueStorage> shards;
+    private final Integer virtualNodes;
+    private final TreeMap<Integer, Integer> ring;
+    private final Striped<Lock> locks = Striped.lock(64);
+    private volatile Integer settledShards;
+    private volatile TreeMap<Integer, Integer> settledRing;
+
+    private StripedKeyValueStorage(List<KeyValueStorage> shards, Integer virtualNodes, Integer settledShards) {
+        this.shards = shards;
+        this.virtualNodes = virtualNodes;
+        this.settledShards = settledShards;
+        this.ring = ring(shards.size(), virtualNodes);
+        this.settledRing = settledShards == shards.size() ? this.ring : ring(settledShards, virtualNodes);
+    }
+
+    private static TreeMap<Integer, Integer> ring(int shards, int virtualNodes) {
+        TreeMap<Integer, Integer> ring = new TreeMap<>();
+        for (int shard = 0; shard < shards; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                ring.put(hash(shard + "#" + node), shard);
+            }
+        }
+        return ring;
+    }
+
+    private static int hash(String value) {
+        return Hashing.murmur3_32().hashString(value, StandardCharsets.UTF_8).asInt();
+    }
+
+    private static int owner(TreeMap<Integer, Integer> ring, String key) {
+        Map.Entry<Integer, Integer> node = ring.ceilingEntry(hash(key));
+        return (node != null ? node : ring.firstEntry()).getValue();
+    }
+
+    private KeyValueStorage shard(String key) {
+        return this.shards.get(owner(this.ring, key));
+    }
+
+    /**
+     * @return shard, which owned the key before shards were added, if it is not the current one
+     */
+    private Optional<KeyValueStorage> previousShard(String key) {
+        TreeMap<Integer, Integer> settled = this.settledRing;
+        if (settled == this.ring) {
+            return Optional.empty();
+        }
+        int previous = owner(settled, key);
+        return previous == owner(this.ring, key) ? Optional.empty() : Optional.of(this.shards.get(previous));
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws DurabilityException {
+        this.write(key, shard -> {
+            shard.put(key, value);
+            return null;
+        });
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        this.write(key, shard -> {
+            shard.put(key, value);
+            return null;
+        });
+    }
+
+    /**
+     * Writes to the shard of the key. Until shards are rebalanced, the value is also removed from previous shard under
+     * lock of the key, so that rebalancing does not bring back an older one.
+     */
+    private void write(String key, ShardOperation<Void> operation) throws DurabilityException {
+        Optional<KeyValueStorage> previous = this.previousShard(key);
+        if (previous.isEmpty()) {
+            operation.apply(this.shard(key));
+            return;
+        }
+        Lock lock = this.locks.get(key);
+        lock.lock();
+        try {
+            operation.apply(this.shard(key));
+            previous.get().delete(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes values of every shard in single batch, all shards in parallel. Until shards are rebalanced, values are
+     * written one by one.
+     */
+    @Override
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        if (this.settledRing != this.ring) {
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                this.put(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        Map<Integer, Map<String, byte[]>> batches = Maps.newTreeMap();
+        values.forEach((key, value) -> batches.computeIfAbsent(owner(this.ring, key), s -> Maps.newHashMap()).put(key, value));
+        this.onShards(batches, KeyValueStorage::putAll);
+    }
+
+    @Override
+    public Optional<byte[]> get(String key) throws DurabilityException {
+        return this.read(key, shard -> shard.get(key));
+    }
+
+    /**
+     * Reads the key from its shard and, until shards are rebalanced, from its previous shard. Moves and writes put the
+     * key to its shard before removing it from the previous one, so after a miss in both the shard is read once more
+     * instead of reporting a key moved in between as absent.
+     */
+    private <T> Optional<T> read(String key, ShardOperation<Optional<T>> operation) throws DurabilityException {
+        // resolved before the first read, so a rebalance finished in between still falls back
+        Optional<KeyValueStorage> previous = this.previousShard(key);
+        KeyValueStorage shard = this.shard(key);
+        Optional<T> value = operation.apply(shard);
+        if (value.isPresent() || previous.isEmpty()) {
+            return value;
+        }
+        value = operation.apply(previous.get());
+        return value.isPresent() ? value : operation.apply(shard);
+    }
+
+    @Override
+    public void delete(String key) throws DurabilityException {
+        this.write(key, shard -> {
+            shard.delete(key);
+            return null;
+        });
+    }
+
+    /**
+     * Reads keys of every shard in single batch, all shards in parallel.
+     */
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) throws DurabilityException {
+        boolean unsettled = this.settledRing != this.ring;
+        Map<Integer, List<String>> batches = Maps.newTreeMap();
+        keys.forEach(key -> batches.computeIfAbsent(owner(this.ring, key), s -> Lists.newArrayList()).add(key));
+        Map<String, byte[]> result = Maps.newConcurrentMap();
+        this.onShards(batches, (shard, batch) -> result.putAll(shard.getAll(batch)));
+        if (unsettled && result.size() < keys.size()) {
+            for (String key : keys) {
+                if (!result.containsKey(key)) {
+                    this.get(key).ifPresent(value -> result.put(key, value));
+                }
+            }
+        }
+        return result;
+    }
+
+    private <T> void onShards(Map<Integer, T> batches, BatchOperation<T> operation) throws DurabilityException {
+        if (batches.size() == 1) {
+            Map.Entry<Integer, T> batch = batches.entrySet().iterator().next();
+            operation.apply(this.shards.get(batch.getKey()), batch.getValue());
+            return;
+        }
+        List<CompletableFuture<Void>> runs = batches.entrySet().stream()
+                .map(batch -> CompletableFuture.runAsync(() -> {
+                    try {
+                        operation.apply(this.shards.get(batch.getKey()), batch.getValue());
+                    } catch (DurabilityException e) {
+                        throw new CompletionException(e);
+                    }
+                }, StorageExecutors.IO))
+                .collect(Collectors.toList());
+        try {
+            CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw DurabilityException.of(e);
+        }
+    }
+
+    @Override
+    public Optional<InputStream> getStream(String key) throws DurabilityException {
+        return this.read(key, shard -> shard.getStream(key));
+    }
+
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) throws DurabilityException {
+        return this.read(key, shard -> shard.getBuffer(key));
+    }
+
+    @Override
+    public Iterator<String> list() throws DurabilityException {
+        return this.list("");
+    }
+
+    /**
+     * Opens listings of all shards in parallel and merges them, keys present in two shards during rebalancing are
+     * listed once.
+     */
+    @Override
+    public Iterator<String> list(String prefix) throws DurabilityException {
+        return distinct(Iterators.mergeSorted(this.onAllShards(shard -> shard.list(prefix)), Comparator.naturalOrder()),
+                Function.identity());
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) throws DurabilityException {
+        return Iterators.limit(distinct(Iterators.mergeSorted(this.onAllShards(shard -> shard.list(prefix, startAfter, limit)),
+                Comparator.naturalOrder()), Function.identity()), limit);
+    }
+
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) throws DurabilityException {
+        List<CloseableIterator<Map.Entry<String, byte[]>>> scans = this.onAllShards(shard -> shard.scan(prefix));
+        Iterator<Map.Entry<String, byte[]>> merged = Iterators.mergeSorted(scans, Map.Entry.comparingByKey());
+        return CloseableIterator.of(distinct(merged, Map.Entry::getKey), () -> scans.forEach(CloseableIterator::close));
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) throws DurabilityException {
+        return this.scan(prefix).map(Map.Entry::getValue);
+    }
+
+    private <T> List<T> onAllShards(ShardOperation<T> operation) throws DurabilityException {
+        List<CompletableFuture<T>> runs = this.shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return operation.apply(shard);
+                    } catch (DurabilityException e) {
+                        throw new CompletionException(e);
+                    }
+                }, StorageExecutors.IO))
+                .collect(Collectors.toList());
+        try {
+            return runs.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (CompletionException e) {
+            throw DurabilityException.of(e);
+        }
+    }
+
+    private static <T> Iterator<T> distinct(Iterator<T> sorted, Function<T, String> key) {
+        PeekingIterator<T> peeking = Iterators.peekingIterator(sorted);
+        return new AbstractIterator<>() {
+            @Override
+            protected T computeNext() {
+                if (!peeking.hasNext()) {
+                    return this.endOfData();
+                }
+                T next = peeking.next();
+                while (peeking.hasNext() && key.apply(peeking.peek()).equals(key.apply(next))) {
+                    peeking.next();
+                }
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Moves keys, which belong to another shard since shards were added, to their shards. Storage stays usable
+     * meanwhile, moves are done under the same locks as writes of the moved keys.
+     *
+     * @return number of moved keys
+     */
+    public synchronized long rebalance() throws DurabilityException {
+        if (this.settledRing == this.ring) {
+            return 0;
+        }
+        long moved = 0;
+        for (int source = 0; source < this.settledShards; source++) {
+            KeyValueStorage shard = this.shards.get(source);
+            List<String> misplaced = Lists.newArrayList();
+            try {
+                for (Iterator<String> keys = shard.list(); keys.hasNext(); ) {
+                    String key = keys.next();
+                    if (owner(this.ring, key) != source) {
+                        misplaced.add(key);
+                    }
+                }
+            } catch (StreamException e) {
+                throw (DurabilityException) e.getCause();
+            }
+            for (String key : misplaced) {
+                if (this.move(key, shard)) {
+                    moved++;
+                }
+            }
+            LOG.debug("Moved {} keys out of shard {}", misplaced.size(), source);
+        }
+        this.settledShards = this.shards.size();
+        this.settledRing = this.ring;
+        return moved;
+    }
+
+    private boolean move(String key, KeyValueStorage source) throws DurabilityException {
+        Lock lock = this.locks.get(key);
+        lock.lock();
+        try {
+            // still present means it has not been written since shards were added
+            Optional<byte[]> value = source.get(key);
+            if (value.isEmpty()) {
+                return false;
+            }
+            this.shard(key).put(key, value.get());
+            source.delete(key);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new ExecutorAsyncKeyValueStorage(this, this.shards.get(0).async().executor());
+    }
+
+    @FunctionalInterface
+    private interface ShardOperation<T> {
+        T apply(KeyValueStorage shard) throws DurabilityException;
+    }
+
+    @FunctionalInterface
+    private interface BatchOperation<T> {
+        void apply(KeyValueStorage shard, T batch) throws DurabilityException;
+    }
+
+    @Override
+    public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
+        return new Metadata<>(this)
+                .withParameter("shards", this.shards)
+                .withParameter("virtualNodes", this.virtualNodes)
+                .withParameter("settledShards", this.settledShards);
+    }
+
+    @Override
+    public ComponentBuilder<? super KeyValueStorage> getBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder implements ComponentBuilder<KeyValueStorage> {
+        private final List<KeyValueStorage> shards = Lists.newArrayList();
+        private Integer virtualNodes = 128;
+        private Integer settledShards;
+
+        @Override
+        public KeyValueStorage build() {
+            Preconditions.checkArgument(!shards.isEmpty(), "At least one shard must be set");
+            Preconditions.checkArgument(virtualNodes > 0, "Number of virtual nodes must be positive");
+            int settled = Optional.ofNullable(this.settledShards).orElse(shards.size());
+            Preconditions.checkArgument(settled > 0 && settled <= shards.size(), "Settled shards must be between 1 and %s", shards.size());
+            return new StripedKeyValueStorage(Lists.newArrayList(shards), virtualNodes, settled);
+        }
+
+        /**
+         * Adds shard after the already set ones.
+         */
+        public Builder shard(KeyValueStorage shard) {
+            this.shards.add(shard);
+            return this;
+        }
+
+        public Builder shards(Collection<KeyValueStorage> shards) {
+            this.shards.clear();
+            this.shards.addAll(shards);
+            return this;
+        }
+
+        /**
+         * Number of points on the hash ring for every shard, 128 by default. More points spread keys more evenly.
+         */
+        public Builder virtualNodes(Integer virtualNodes) {
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        /**
+         * Number of leading shards, which the keys are spread across. Shards after them have been added, but keys
+         * have not been rebalanced yet. All shards by default.
+         */
+        public Builder settledShards(Integer settledShards) {
+            this.settledShards = settledShards;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.mlops4j.api.ComponentBuilder;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+/**
+ * Storage keeping recently used values in a hot tier, usually in memory, over a cold tier holding all of them.
+ * Values are written to the hot tier and through to the cold one asynchronously, writes of the same key are applied
+ * to the cold tier in order. Read values are promoted to the hot tier, which demotes least recently used ones once
+ * their total size exceeds hot capacity. Values not yet written to the cold tier are never demoted.
+ * <p>
+ * Values larger than maximal value size and streamed writes go to the cold tier directly. Listing and scanning wait
+ * for pending writes under the prefix, so they see everything written before. {@link #flush()} waits for all pending
+ * writes, retrying the failed ones. State of the hot tier is shared by all tiered storages of the same hot tier in
+ * the JVM.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+public class TieredKeyValueStorage implements KeyValueStorage {
+    private final static Logger LOG = LoggerFactory.getLogger(TieredKeyValueStorage.class);
+    private static final int STRIPES = 64;
+
+    private final KeyValueStorage hot;
+    private final KeyValueStorage cold;
+    private final Long hotCapacity;
+    private final Integer maximumValueSize;
+    private final Residency residency;
+
+    private TieredKeyValueStorage(KeyValueStorage hot, KeyValueStorage cold, Long hotCapacity, Integer maximumValueSize,
+                                  Residency residency) {
+        this.hot = hot;
+        this.cold = cold;
+        this.hotCapacity = hotCapacity;
+        this.maximumValueSize = maximumValueSize;
+        this.residency = residency;
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws DurabilityException {
+        if (value.length > this.maximumValueSize) {
+            synchronized (this.residency.lock(key)) {
+                this.residency.written(key);
+                this.awaitPending(key);
+                this.cold.put(key, value);
+                this.demote(key);
+            }
+            return;
+        }
+        synchronized (this.residency.lock(key)) {
+            this.residency.written(key);
+            this.hot.put(key, value);
+            this.residency.admit(key, value.length);
+            this.writeBehind(key, value);
+        }
+        this.evict();
+    }
+
+    @Override
+    public void put(String key, InputStream value) throws DurabilityException {
+        synchronized (this.residency.lock(key)) {
+            this.residency.written(key);
+            this.awaitPending(key);
+            this.cold.put(key, value);
+            this.demote(key);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, byte[]> values) throws DurabilityException {
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            this.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(String key) throws DurabilityException {
+        if (this.residency.touch(key)) {
+            Optional<byte[]> value = this.hot.get(key);
+            if (value.isPresent()) {
+                return value;
+            }
+        }
+        long version = this.residency.version(key);
+        Optional<byte[]> value = this.cold.get(key);
+        if (value.isPresent()) {
+            this.promote(key, value.get(), version);
+        }
+        return value;
+    }
+
+    @Override
+    public void delete(String key) throws DurabilityException {
+        synchronized (this.residency.lock(key)) {
+            this.residency.written(key);
+            this.awaitPending(key);
+            this.cold.delete(key);
+            this.demote(key);
+        }
+    }
+
+    /**
+     * Reads resident values from the hot tier and the remaining ones from the cold tier in single batch.
+     */
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) throws DurabilityException {
+        List<String> resident = Lists.newArrayList();
+        Map<String, Long> versions = Maps.newHashMap();
+        for (String key : keys) {
+            if (this.residency.touch(key)) {
+                resident.add(key);
+            } else {
+                versions.put(key, this.residency.version(key));
+            }
+        }
+        Map<String, byte[]> result = Maps.newHashMap(this.hot.getAll(resident));
+        resident.stream().filter(key -> !result.containsKey(key))
+                .forEach(key -> versions.put(key, this.residency.version(key)));
+        if (!versions.isEmpty()) {
+            Map<String, byte[]> loaded = this.cold.getAll(versions.keySet());
+            for (Map.Entry<String, byte[]> entry : loaded.entrySet()) {
+                this.promote(entry.getKey(), entry.getValue(), versions.get(entry.getKey()));
+            }
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    /**
+     * Streams resident value from the hot tier, other values are streamed from the cold tier without promotion.
+     */
+    @Override
+    public Optional<InputStream> getStream(String key) throws DurabilityException {
+        if (this.residency.touch(key)) {
+            Optional<InputStream> value = this.hot.getStream(key);
+            if (value.isPresent()) {
+                return value;
+            }
+        }
+        return this.cold.getStream(key);
+    }
+
+    @Override
+    public Optional<ByteBuffer> getBuffer(String key) throws DurabilityException {
+        if (this.residency.touch(key)) {
+            Optional<ByteBuffer> value = this.hot.getBuffer(key);
+            if (value.isPresent()) {
+                return value;
+            }
+        }
+        return this.cold.getBuffer(key);
+    }
+
+    @Override
+    public Iterator<String> list() throws DurabilityException {
+        return this.list("");
+    }
+
+    @Override
+    public Iterator<String> list(String prefix) throws DurabilityException {
+        this.flush(under(prefix));
+        return this.cold.list(prefix);
+    }
+
+    @Override
+    public Iterator<String> list(String prefix, String startAfter, int limit) throws DurabilityException {
+        this.flush(under(prefix));
+        return this.cold.list(prefix, startAfter, limit);
+    }
+
+    /**
+     * Scans the cold tier, so that one pass over many entries does not demote the frequently read ones.
+     */
+    @Override
+    public CloseableIterator<Map.Entry<String, byte[]>> scan(String prefix) throws DurabilityException {
+        this.flush(under(prefix));
+        return this.cold.scan(prefix);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> scanValues(String prefix) throws DurabilityException {
+        this.flush(under(prefix));
+        return this.cold.scanValues(prefix);
+    }
+
+    @Override
+    public AsyncKeyValueStorage async() {
+        return new ExecutorAsyncKeyValueStorage(this, this.cold.async().executor());
+    }
+
+    /**
+     * Waits until all values are written to the cold tier, writing again values, whose asynchronous write failed.
+     */
+    public void flush() throws DurabilityException {
+        this.flush(key -> true);
+    }
+
+    /**
+     * @return number of bytes of values kept in the hot tier
+     */
+    public long getResidentBytes() {
+        synchronized (this.residency.resident) {
+            return this.residency.bytes;
+        }
+    }
+
+    private static Predicate<String> under(String prefix) {
+        String namespace = prefix.isEmpty() ? prefix : prefix + "/";
+        return key -> key.startsWith(namespace);
+    }
+
+    private void flush(Predicate<String> keys) throws DurabilityException {
+        for (String key : Lists.newArrayList(this.residency.pending.keySet())) {
+            if (keys.test(key)) {
+                synchronized (this.residency.lock(key)) {
+                    this.awaitPending(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for pending write of the key, writing the value from the hot tier again if it failed. It is called
+     * with the lock of the key held, so no other write of the key is scheduled meanwhile.
+     */
+    private void awaitPending(String key) throws DurabilityException {
+        CompletableFuture<Void> write = this.residency.pending.get(key);
+        if (write == null) {
+            return;
+        }
+        try {
+            write.join();
+        } catch (CompletionException e) {
+            Optional<byte[]> value = this.hot.get(key);
+            if (value.isPresent()) {
+                this.cold.put(key, value.get());
+            }
+        }
+        this.residency.pending.remove(key, write);
+    }
+
+    private void writeBehind(String key, byte[] value) {
+        CompletableFuture<Void> write = this.residency.pending.compute(key, (k, previous) ->
+                (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous.exceptionally(e -> null))
+                        .thenCompose(nothing -> this.cold.async().put(key, value)));
+        write.whenComplete((nothing, e) -> {
+            if (e != null) {
+                // left pending, so the value is kept in the hot tier until it is flushed
+                LOG.warn("Cannot write key {} to cold tier, it is retried on flush", key, e);
+            } else {
+                // demoted by the next write, evicting here could wait for a lock held by a thread joining this write
+                this.residency.pending.remove(key, write);
+            }
+        });
+    }
+
+    private void promote(String key, byte[] value, long version) throws DurabilityException {
+        if (value.length > this.maximumValueSize) {
+            return;
+        }
+        synchronized (this.residency.lock(key)) {
+            // written since it has been read from the cold tier, so the value may be stale
+            if (this.residency.version(key) != version || this.residency.isResident(key)) {
+                return;
+            }
+            this.hot.put(key, value);
+            this.residency.admit(key, value.length);
+        }
+        this.evict();
+    }
+
+    private void demote(String key) throws DurabilityException {
+        if (this.residency.forget(key)) {
+            this.hot.delete(key);
+        }
+    }
+
+    private void evict() throws DurabilityException {
+        for (String key : this.residency.victims(this.hotCapacity)) {
+            synchronized (this.residency.lock(key)) {
+                if (!this.residency.pending.containsKey(key)) {
+                    this.demote(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recency and size of values in the hot tier, versions of keys guarding promotion against concurrent writes and
+     * pending writes to the cold tier.
+     */
+    private static class Residency {
+        private final LinkedHashMap<String, Integer> resident = new LinkedHashMap<>(16, 0.75f, true);
+        private final ConcurrentMap<String, CompletableFuture<Void>> pending = Maps.newConcurrentMap();
+        private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+        private final Object[] locks = new Object[STRIPES];
+        private long bytes;
+
+        private Residency() {
+            for (int i = 0; i < STRIPES; i++) {
+                this.locks[i] = new Object();
+            }
+        }
+
+        private int stripe(String key) {
+            return (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+        }
+
+        private Object lock(String key) {
+            return this.locks[this.stripe(key)];
+        }
+
+        private long version(String key) {
+            return this.versions.get(this.stripe(key));
+        }
+
+        private void written(String key) {
+            this.versions.incrementAndGet(this.stripe(key));
+        }
+
+        private boolean touch(String key) {
+            synchronized (this.resident) {
+                return this.resident.get(key) != null;
+            }
+        }
+
+        private boolean isResident(String key) {
+            synchronized (this.resident) {
+                return this.resident.containsKey(key);
+            }
+        }
+
+        private void admit(String key, int size) {
+            synchronized (this.resident) {
+                Integer previous = this.resident.put(key, size);
+                this.bytes += size - (previous == null ? 0 : previous);
+            }
+        }
+
+        private boolean forget(String key) {
+            synchronized (this.resident) {
+                Integer size = this.resident.remove(key);
+                if (size != null) {
+                    this.bytes -= size;
+                }
+                return size != null;
+            }
+        }
+
+        /**
+         * Least recently used keys, which are not pending, large enough in total to get back under capacity.
+         */
+        private List<String> victims(long capacity) {
+            List<String> victims = Lists.newArrayList();
+            synchronized (this.resident) {
+                long excess = this.bytes - capacity;
+                for (Iterator<Map.Entry<String, Integer>> entries = this.resident.entrySet().iterator(); excess > 0 && entries.hasNext(); ) {
+                    Map.Entry<String, Integer> entry = entries.next();
+                    if (!this.pending.containsKey(entry.getKey())) {
+                        victims.add(entry.getKey());
+                        excess -= entry.getValue();
+                    }
+                }
+            }
+            return victims;
+        }
+    }
+
+    @Override
+    public Metadata<KeyValueStorage> getMetadata() throws DurabilityException {
+        return new Metadata<>(this)
+                .withParameter("hot", this.hot)
+                .withParameter("cold", this.cold)
+                .withParameter("hotCapacity", this.hotCapacity)
+                .withParameter("maximumValueSize", this.maximumValueSize);
+    }
+
+    @Override
+    public ComponentBuilder<? super KeyValueStorage> getBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder implements ComponentBuilder<KeyValueStorage> {
+        private final static ConcurrentMap<String, Residency> RESIDENCIES = Maps.newConcurrentMap();
+        private KeyValueStorage hot;
+        private KeyValueStorage cold;
+        private Long hotCapacity = 256L * 1024 * 1024;
+        private Integer maximumValueSize = 16 * 1024 * 1024;
+
+        @Override
+        public KeyValueStorage build() {
+            Preconditions.checkNotNull(cold, "Cold tier must be set");
+            Preconditions.checkArgument(hotCapacity > 0, "Hot capacity must be positive");
+            Preconditions.checkArgument(maximumValueSize >= 0, "Maximum value size cannot be negative");
+            KeyValueStorage hot = Optional.ofNullable(this.hot).orElseGet(() -> new InMemoryKeyValueStorage.Builder().build());
+            try {
+                // storages restored from the same metadata share content, so they share its residency as well
+                String identity = new String(hot.getMetadata().asBytes(Metadata.Format.JSON), StandardCharsets.UTF_8);
+                return new TieredKeyValueStorage(hot, cold, hotCapacity, maximumValueSize,
+                        RESIDENCIES.computeIfAbsent(identity, i -> new Residency()));
+            } catch (DurabilityException e) {
+                throw new IllegalStateException("Cannot identify hot tier", e);
+            }
+        }
+
+        /**
+         * Storage of the hot tier, new in memory storage by default.
+         */
+        public Builder hot(KeyValueStorage hot) {
+            this.hot = hot;
+            return this;
+        }
+
+        /**
+         * Storage of the cold tier, holding all values.
+         */
+        public Builder cold(KeyValueStorage cold) {
+            this.cold = cold;
+            return this;
+        }
+
+        /**
+         * Maximal number of bytes of values kept in the hot tier.
+         */
+        public Builder hotCapacity(Long hotCapacity) {
+            this.hotCapacity = hotCapacity;
+            return this;
+        }
+
+        /**
+         * Maximal size of value kept in the hot tier, larger values are kept in the cold tier only.
+         */
+        public Builder maximumValueSize(Integer maximumValueSize) {
+            this.maximumValueSize = maximumValueSize;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.model;
+
+import com.google.common.collect.Iterators;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mlops4j.model.registry.impl.ChunkedBlobStore;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class ChunkedBlobStoreTests {
+
+    @Test
+    public void testSimilarFilesShareChunks(@TempDir Path directory) throws DurabilityException, IOException {
+        KeyValueStorage storage = new InMemoryKeyValueStorage.Builder().build();
+        ChunkedBlobStore blobs = new ChunkedBlobStore(storage);
+        byte[] first = new byte[4 * 1024 * 1024];
+        new Random(7).nextBytes(first);
+        byte[] second = first.clone();
+        for (int i = 2_000_000; i < 2_000_100; i++) {
+            second[i] = (byte) ~second[i];
+        }
+        Files.write(directory.resolve("first"), first);
+        Files.write(directory.resolve("second"), second);
+
+        blobs.put("first", directory.resolve("first"));
+        int firstChunks = Iterators.size(storage.list("content/chunks"));
+        blobs.put("second", directory.resolve("second"));
+        int allChunks = Iterators.size(storage.list("content/chunks"));
+
+        assertThat(firstChunks).isGreaterThan(10);
+        assertThat(allChunks - firstChunks).isBetween(1, 2);
+
+        blobs.get("first", directory.resolve("first-restored"));
+        blobs.get("second", directory.resolve("second-restored"));
+        assertThat(Files.readAllBytes(directory.resolve("first-restored"))).isEqualTo(first);
+        assertThat(Files.readAllBytes(directory.resolve("second-restored"))).isEqualTo(second);
+    }
+
+    @Test
+    public void testWholeFilesAreStillReadable(@TempDir Path directory) throws DurabilityException, IOException {
+        KeyValueStorage storage = new InMemoryKeyValueStorage.Builder().build();
+        storage.put("content/legacy", new byte[]{1, 2, 3});
+
+        new ChunkedBlobStore(storage).get("legacy", directory.resolve("legacy"));
+
+        assertThat(Files.readAllBytes(directory.resolve("legacy"))).containsExactly(1, 2, 3);
+    }
+}
@@ -18,8 +18,10 @@
 package org.mlops4j.model;
 
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import org.assertj.core.data.Offset;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mlops4j.api.ResultStatus;
 import org.mlops4j.dataset.api.DataSet;
 import org.mlops4j.evaluation.api.*;
@@ -32,17 +34,35 @@ import org.mlops4j.model.api.ModelConfiguration;
 import org.mlops4j.model.api.ModelId;
 import org.mlops4j.model.impl.BaseModel;
 import org.mlops4j.model.registry.api.ModelRegistry;
+import org.mlops4j.model.registry.impl.ChunkedBlobStore;
+import org.mlops4j.model.registry.impl.KeyValueModelRegistry;
 import org.mlops4j.model.registry.impl.ModelRegistryBuilder;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.Metadata;
 import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
 import org.mlops4j.training.api.FitResult;
 import org.mlops4j.training.api.Trainer;
+import org.mockito.Mockito;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
@@ -132,6 +152,98 @@ public class ModelTests {
         assertThat(modelIds[1].getIteration().equals(20));
     }
 
+    @Test
+    public void garbageCollectionKeepsReferencedContent(@TempDir Path directory) throws DurabilityException, IOException {
+        KeyValueStorage storage = new InMemoryKeyValueStorage.Builder().build();
+        KeyValueModelRegistry registry = new KeyValueModelRegistry(storage);
+        Model model = getModel(registry);
+        model.fit(new TestDataSet.Builder().build()).join();
+        int referenced = Iterators.size(storage.list("content"));
+        assertThat(referenced).isPositive();
+        Files.write(directory.resolve("orphan"), new byte[100_000]);
+        new ChunkedBlobStore(storage).put("orphan", directory.resolve("orphan"));
+        storage.put("content/legacy", new byte[]{1});
+
+        long deleted = registry.collectGarbage(1000.0);
+
+        assertThat(deleted).isGreaterThanOrEqualTo(3);
+        assertThat(Iterators.size(storage.list("content"))).isEqualTo(referenced);
+        assertThat(registry.get(model.getId())).contains(model);
+    }
+
+    @Test
+    public void failedPutReleasesContentForCollection() throws DurabilityException {
+        KeyValueStorage storage = Mockito.spy(new InMemoryKeyValueStorage.Builder().build());
+        AsyncKeyValueStorage async = Mockito.mock(AsyncKeyValueStorage.class);
+        Mockito.when(async.put(Mockito.anyString(), Mockito.any(byte[].class))).thenReturn(CompletableFuture.completedFuture(null));
+        // model is described on the executor, which is shut down before its content is written
+        AtomicInteger executions = new AtomicInteger();
+        Mockito.when(async.executor()).thenReturn(command -> {
+            if (executions.getAndIncrement() > 0) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            command.run();
+        });
+        Mockito.doReturn(async).when(storage).async();
+        KeyValueModelRegistry registry = new KeyValueModelRegistry(storage);
+        Model model = getModel(registry);
+        Collection<String> hashes = Metadata.of(model).getHashes();
+
+        CompletableFuture<Void> put = registry.putAsync(model);
+        assertThat(put).isCompletedExceptionally();
+        assertThatThrownBy(put::join).hasCauseInstanceOf(DurabilityException.class)
+                .hasRootCauseInstanceOf(RejectedExecutionException.class);
+        for (String hash : hashes) {
+            storage.put("content/" + hash, new byte[]{1});
+        }
+        registry.collectGarbage(1000.0);
+
+        assertThat(hashes).isNotEmpty();
+        assertThat(storage.list("content")).isExhausted();
+    }
+
+    @Test
+    public void putDescribesModelOnStorageExecutor() throws DurabilityException {
+        KeyValueStorage storage = Mockito.spy(new InMemoryKeyValueStorage.Builder().build());
+        AsyncKeyValueStorage async = Mockito.mock(AsyncKeyValueStorage.class);
+        Mockito.when(async.put(Mockito.anyString(), Mockito.any(byte[].class))).thenReturn(CompletableFuture.completedFuture(null));
+        Queue<Runnable> commands = new ArrayDeque<>();
+        Mockito.when(async.executor()).thenReturn(commands::add);
+        Mockito.doReturn(async).when(storage).async();
+        KeyValueModelRegistry registry = new KeyValueModelRegistry(storage);
+        Model model = getModel(registry);
+
+        CompletableFuture<Void> put = registry.putAsync(model);
+
+        assertThat(put).isNotDone();
+        assertThat(commands).hasSize(1);
+        Mockito.verify(async, Mockito.never()).put(Mockito.anyString(), Mockito.any(byte[].class));
+        while (!commands.isEmpty()) {
+            commands.poll().run();
+        }
+        assertThat(put).isCompleted();
+        assertThat(storage.list("content")).hasNext();
+    }
+
+    @Test
+    public void modelIsProjectedWithoutRestoringContent() throws DurabilityException {
+        KeyValueStorage storage = new InMemoryKeyValueStorage.Builder().build();
+        KeyValueModelRegistry registry = new KeyValueModelRegistry(storage);
+        Model model = getModel(registry);
+        model.fit(new TestDataSet.Builder().build()).join();
+        for (String key : Lists.newArrayList(storage.list("content"))) {
+            storage.delete(key);
+        }
+
+        Map<String, Object> projection = registry.project(model.getId(), "id", "evaluations")
+                .orElseThrow(() -> new AssertionError("Cannot find model"));
+
+        assertThat(projection).containsEntry("id", new String(model.getId().asBytes()));
+        assertThat((Collection<?>) projection.get("evaluations")).isEmpty();
+        assertThat(projection).doesNotContainKeys("configuration", "trainer");
+        assertThat(registry.project(new ModelId("missingModel", "1.0"), "id")).isEmpty();
+    }
+
     @Test
     public void modelTestInferenceReplacement() {
 
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage;
+
+import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.CachingKeyValueStorage;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class CachingStorageTests {
+
+    @Test
+    public void testRepeatedReadsAreServedFromCache() throws DurabilityException {
+        KeyValueStorage delegate = spy(new InMemoryKeyValueStorage.Builder().build());
+        delegate.put("models/a", new byte[]{1});
+        CachingKeyValueStorage storage = (CachingKeyValueStorage) new CachingKeyValueStorage.Builder()
+                .storage(delegate).build();
+
+        assertThat(storage.get("models/a")).contains(new byte[]{1});
+        assertThat(storage.get("models/a")).contains(new byte[]{1});
+        assertThat(storage.get("models/a")).contains(new byte[]{1});
+
+        verify(delegate, times(1)).get("models/a");
+        assertThat(storage.getMissCount()).isEqualTo(1);
+        assertThat(storage.getHitCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testWritesGoThroughAndImmutableKeysAreWrittenOnce() throws DurabilityException {
+        KeyValueStorage delegate = spy(new InMemoryKeyValueStorage.Builder().build());
+        KeyValueStorage storage = new CachingKeyValueStorage.Builder().storage(delegate).build();
+
+        storage.put("models/a", new byte[]{1});
+        storage.put("models/a", new byte[]{2});
+        storage.put("content/hash", new byte[]{3});
+        storage.put("content/hash", new byte[]{3});
+
+        assertThat(delegate.get("models/a")).contains(new byte[]{2});
+        assertThat(storage.get("models/a")).contains(new byte[]{2});
+        verify(delegate, times(2)).put(eq("models/a"), any(byte[].class));
+        verify(delegate, times(1)).put(eq("content/hash"), any(byte[].class));
+    }
+
+    @Test
+    public void testSmallStreamedValuesAreCached() throws DurabilityException, IOException {
+        KeyValueStorage delegate = spy(new InMemoryKeyValueStorage.Builder().build());
+        delegate.put("content/small", new byte[100]);
+        delegate.put("content/large", new byte[1000]);
+        KeyValueStorage storage = new CachingKeyValueStorage.Builder().storage(delegate).maximumValueSize(500).build();
+
+        for (int i = 0; i < 3; i++) {
+            try (InputStream small = storage.getStream("content/small").orElseThrow();
+                 InputStream large = storage.getStream("content/large").orElseThrow()) {
+                assertThat(small.readAllBytes()).hasSize(100);
+                assertThat(large.readAllBytes()).hasSize(1000);
+            }
+        }
+        verify(delegate, times(1)).getStream("content/small");
+        verify(delegate, times(3)).getStream("content/large");
+    }
+
+    @Test
+    public void testCacheIsBoundedByWeight() throws DurabilityException {
+        KeyValueStorage delegate = new InMemoryKeyValueStorage.Builder().build();
+        CachingKeyValueStorage storage = (CachingKeyValueStorage) new CachingKeyValueStorage.Builder()
+                .storage(delegate).maximumWeight(10_000L).cachedPrefixes(List.of("content/")).build();
+
+        for (int i = 0; i < 10; i++) {
+            storage.put("content/" + i, new byte[2_000]);
+        }
+        storage.put("models/a", new byte[1]);
+
+        assertThat(storage.getEvictionCount()).isGreaterThanOrEqualTo(5);
+        storage.get("models/a");
+        storage.get("models/a");
+        assertThat(storage.getHitCount()).isZero();
+    }
+
+    @Test
+    public void testMetadataPersistsConfiguration() throws DurabilityException {
+        KeyValueStorage storage = new CachingKeyValueStorage.Builder()
+                .storage(new InMemoryKeyValueStorage.Builder().name("cached-metadata").build())
+                .maximumWeight(1024L)
+                .build();
+        storage.put("models/a", new byte[]{1});
+
+        KeyValueStorage restored = storage.getMetadata().getDurable();
+        assertThat(restored).isInstanceOf(CachingKeyValueStorage.class);
+        assertThat(restored.get("models/a")).contains(new byte[]{1});
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage;
+
+import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.CoalescingKeyValueStorage;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class CoalescingStorageTests {
+
+    @Test
+    public void testConcurrentReadersShareOneRead() throws Exception {
+        KeyValueStorage delegate = spy(new InMemoryKeyValueStorage.Builder().build());
+        delegate.put("models/a", new byte[]{1});
+        CountDownLatch readers = new CountDownLatch(8);
+        doAnswer(invocation -> {
+            readers.await();
+            return invocation.callRealMethod();
+        }).when(delegate).get("models/a");
+        CoalescingKeyValueStorage storage = (CoalescingKeyValueStorage) new CoalescingKeyValueStorage.Builder()
+                .storage(delegate).build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Optional<byte[]>>> reads = IntStream.range(0, 8)
+                    .mapToObj(i -> executor.submit(() -> {
+                        readers.countDown();
+                        return storage.get("models/a");
+                    }))
+                    .collect(Collectors.toList());
+            for (Future<Optional<byte[]>> read : reads) {
+                assertThat(read.get()).contains(new byte[]{1});
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(storage.getLoadCount() + storage.getDeduplicatedCount()).isEqualTo(8);
+        assertThat(storage.getDeduplicatedCount()).isPositive();
+        verify(delegate, times((int) storage.getLoadCount())).get("models/a");
+    }
+
+    @Test
+    public void testReadAfterWriteSeesWrittenValue() throws DurabilityException {
+        KeyValueStorage storage = new CoalescingKeyValueStorage.Builder()
+                .storage(new InMemoryKeyValueStorage.Builder().build()).build();
+        storage.put("models/a", new byte[]{1});
+        assertThat(storage.get("models/a")).contains(new byte[]{1});
+        storage.put("models/a", new byte[]{2});
+        assertThat(storage.get("models/a")).contains(new byte[]{2});
+        assertThat(storage.async().get("models/a").join()).contains(new byte[]{2});
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage;
+
+import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.CompressingKeyValueStorage;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class CompressingStorageTests {
+
+    private static final byte[] JSON = "{\"parameters\":[1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0,1.0]}".repeat(100).getBytes();
+
+    @Test
+    public void testCompressibleValuesAreStoredSmaller() throws DurabilityException {
+        KeyValueStorage delegate = new InMemoryKeyValueStorage.Builder().build();
+        KeyValueStorage storage = new CompressingKeyValueStorage.Builder().storage(delegate).build();
+
+        storage.put("models/a", JSON);
+
+        assertThat(delegate.get("models/a").get().length).isLessThan(JSON.length / 10);
+        assertThat(storage.get("models/a")).contains(JSON);
+        ByteBuffer buffer = storage.getBuffer("models/a").get();
+        byte[] read = new byte[buffer.remaining()];
+        buffer.get(read);
+        assertThat(read).isEqualTo(JSON);
+    }
+
+    @Test
+    public void testIncompressibleAndSkippedValuesAreStoredRaw() throws DurabilityException {
+        KeyValueStorage delegate = new InMemoryKeyValueStorage.Builder().build();
+        KeyValueStorage storage = new CompressingKeyValueStorage.Builder().storage(delegate).build();
+        byte[] random = new byte[10_000];
+        new Random().nextBytes(random);
+
+        storage.put("models/random", random);
+        storage.put("content/json", JSON);
+        storage.put("models/empty", new byte[0]);
+
+        assertThat(delegate.get("models/random")).contains(random);
+        assertThat(delegate.get("content/json")).contains(JSON);
+        assertThat(storage.get("models/random")).contains(random);
+        assertThat(storage.get("content/json")).contains(JSON);
+        assertThat(storage.get("models/empty")).contains(new byte[0]);
+        assertThat(storage.getAll(List.of("models/random", "content/json"))).containsOnlyKeys("models/random", "content/json");
+    }
+
+    @Test
+    public void testValuesPutIntoUnderlyingStorageAreReadAsRaw() throws DurabilityException, IOException {
+        KeyValueStorage delegate = new InMemoryKeyValueStorage.Builder().build();
+        KeyValueStorage storage = new CompressingKeyValueStorage.Builder().storage(delegate).build();
+        byte[] legacy = {0, 1, 2, 3, 4, 5};
+        delegate.put("models/json", JSON);
+        delegate.put("models/legacy", legacy);
+        delegate.put("models/short", new byte[]{1});
+
+        assertThat(storage.get("models/json")).contains(JSON);
+        assertThat(storage.get("models/legacy")).contains(legacy);
+        assertThat(storage.get("models/short")).contains(new byte[]{1});
+        try (InputStream is = storage.getStream("models/legacy").get()) {
+            assertThat(is.readAllBytes()).isEqualTo(legacy);
+        }
+        assertThat(storage.getBuffer("models/json").get()).isEqualTo(ByteBuffer.wrap(JSON));
+    }
+
+    @Test
+    public void testRawValuesStartingWithHeaderAreEscaped() throws DurabilityException, IOException {
+        KeyValueStorage delegate = new InMemoryKeyValueStorage.Builder().build();
+        KeyValueStorage storage = new CompressingKeyValueStorage.Builder().storage(delegate).build();
+        byte[] lookalike = {(byte) 0xc0, 'm', 'z', 1, 42};
+
+        storage.put("content/lookalike", lookalike);
+        try (InputStream is = new ByteArrayInputStream(lookalike)) {
+            storage.put("content/streamed", is);
+        }
+
+        assertThat(delegate.get("content/lookalike").get()).hasSize(lookalike.length + 4);
+        assertThat(storage.get("content/lookalike")).contains(lookalike);
+        assertThat(storage.get("content/streamed")).contains(lookalike);
+        assertThat(storage.getBuffer("content/lookalike").get()).isEqualTo(ByteBuffer.wrap(lookalike));
+    }
+
+        @Test
+    public void testStreamReadAndWrite() throws DurabilityException, IOException {
+        KeyValueStorage delegate = new InMemoryKeyValueStorage.Builder().build();
+        KeyValueStorage storage = new CompressingKeyValueStorage.Builder().storage(delegate)
+                .codecs(List.of("=DEFLATE")).build();
+        byte[] large = new String(JSON).repeat(30).getBytes();
+
+        try (InputStream is = new ByteArrayInputStream(large)) {
+            storage.put("content/large", is);
+        }
+
+        assertThat(delegate.get("content/large").get().length).isLessThan(large.length / 10);
+        try (InputStream is = storage.getStream("content/large").get()) {
+            assertThat(is.readAllBytes()).isEqualTo(large);
+        }
+    }
+
+    @Test
+    public void testMetadataPersistsConfiguration() throws DurabilityException {
+        KeyValueStorage storage = new CompressingKeyValueStorage.Builder()
+                .storage(new InMemoryKeyValueStorage.Builder().name("compressed-metadata").build())
+                .codec("models/raw/", CompressingKeyValueStorage.Codec.RAW)
+                .level(1)
+                .build();
+        storage.put("models/a", JSON);
+
+        KeyValueStorage restored = storage.getMetadata().getDurable();
+        assertThat(restored).isInstanceOf(CompressingKeyValueStorage.class);
+        assertThat(restored.get("models/a")).contains(JSON);
+    }
+}
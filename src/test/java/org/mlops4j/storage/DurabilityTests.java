@@ -28,9 +28,14 @@ import org.mlops4j.storage.api.Metadata;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
@@ -72,6 +77,56 @@ public class DurabilityTests {
         assertThat(retrieved).isEqualTo(binaryContent);
     }
 
+    @Test
+    public void bothFormatsAreRestored() throws DurabilityException {
+        Durable container = new ContainerClass(new SimpleClass("some string", -100, Instant.now()));
+        Metadata<ContainerClass> metadata = container.getMetadata();
+        byte[] json = metadata.asBytes(Metadata.Format.JSON);
+        byte[] binary = metadata.asBytes();
+
+        Metadata<ContainerClass> fromJson = new Metadata<>();
+        fromJson.fromBytes(json);
+        Metadata<ContainerClass> fromBinary = new Metadata<>();
+        fromBinary.fromBytes(binary);
+
+        assertThat(fromJson.getDurable()).isEqualTo(container);
+        assertThat(fromBinary.getDurable()).isEqualTo(container);
+        assertThat(fromJson.asBytes()).isEqualTo(binary);
+        assertThat(binary.length).isLessThan(json.length);
+    }
+
+    @Test
+    public void binaryCountsBeyondMetadataAreRejected() {
+        // builder name "x" followed by parameter count of Integer.MAX_VALUE
+        byte[] parameters = {0, 'm', 'd', 1, 2, 'x', (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};
+        // builder name "x", single parameter "a" of array type with count of -1
+        byte[] items = {0, 'm', 'd', 1, 2, 'x', 1, 2, 'a', 7, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f};
+
+        assertThatThrownBy(() -> new Metadata<>().fromBytes(parameters))
+                .isInstanceOf(DurabilityException.class).hasMessageContaining("exceeds metadata");
+        assertThatThrownBy(() -> new Metadata<>().fromBytes(items))
+                .isInstanceOf(DurabilityException.class).hasMessageContaining("exceeds metadata");
+    }
+
+    @Test
+    public void metadataIsStreamedInAnyFieldOrder() throws DurabilityException {
+        String json = "{\"parameters\": {\"nestedObject\": {\"value\": {\"parameters\": {"
+                + "\"intProperty\": {\"value\": 7, \"type\": \"INTEGER\"},"
+                + "\"stringProperty\": {\"type\": \"STRING\", \"value\": \"streamed\"}},"
+                + "\"builderClassName\": \"" + SimpleClass.Builder.class.getName() + "\"}, \"type\": \"METADATA\"}},"
+                + "\"builderClassName\": \"" + ContainerClass.Builder.class.getName() + "\"}";
+        Metadata<ContainerClass> fromJson = new Metadata<>();
+        fromJson.fromStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(fromJson.getDurable()).isEqualTo(new ContainerClass(new SimpleClass("streamed", 7, null)));
+
+        Metadata<ContainerClass> fromBinary = new Metadata<>();
+        fromBinary.fromStream(new ByteArrayInputStream(fromJson.asBytes()));
+        assertThat(fromBinary.getDurable()).isEqualTo(fromJson.getDurable());
+        assertThatThrownBy(() -> new Metadata<>().fromBytes("{\"parameters\": {}".getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(DurabilityException.class);
+    }
+
     @AllArgsConstructor
     @EqualsAndHashCode
     public static class ClassWithBinaryContent implements Durable<ClassWithBinaryContent> {
@@ -132,6 +187,147 @@ public class DurabilityTests {
         }
     }
 
+    @Test
+    public void builderSettersAreBoundOnce() throws DurabilityException {
+        SimpleClass durable = new SimpleClass("some string", 100, Instant.now());
+        Metadata<SimpleClass> metadata = durable.getMetadata();
+
+        assertThat(metadata.getDurable()).isEqualTo(durable);
+        assertThat(metadata.getDurable()).isEqualTo(durable);
+
+        Metadata<SimpleClass> unknown = new Metadata<>(new SimpleClass.Builder()).withParameter("unknownProperty", 1);
+        assertThatThrownBy(unknown::getDurable)
+                .isInstanceOf(DurabilityException.class)
+                .hasMessageContaining("Could not find method unknownProperty");
+        Metadata<SimpleClass> mistyped = new Metadata<>(new SimpleClass.Builder()).withParameter("intProperty", "one");
+        assertThatThrownBy(mistyped::getDurable)
+                .isInstanceOf(DurabilityException.class)
+                .hasMessageContaining("Could not find method intProperty");
+    }
+
+    @Test
+    public void parametersAreProjectedWithoutBuilders() throws DurabilityException {
+        String json = "{\"builderClassName\": \"" + ContainerClass.Builder.class.getName() + "\", \"parameters\": {"
+                + "\"nestedObject\": {\"type\": \"METADATA\", \"value\": {\"builderClassName\": \"org.mlops4j.Missing\","
+                + "\"parameters\": {}}}, \"name\": {\"type\": \"STRING\", \"value\": \"projected\"}}}";
+        Metadata<ContainerClass> metadata = new Metadata<>();
+        metadata.fromBytes(json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(metadata.project("name", "absent")).containsOnly(entry("name", "projected"));
+        assertThat(metadata.<String>getParameter("name")).contains("projected");
+        assertThat(metadata.getParameter("absent")).isEmpty();
+        assertThatThrownBy(() -> metadata.project("nestedObject"))
+                .isInstanceOf(DurabilityException.class)
+                .hasMessageContaining("org.mlops4j.Missing");
+    }
+
+    @Test
+    public void sharedContentIsWrittenAndRestoredOnce() throws DurabilityException {
+        StringBuilder shared = new StringBuilder("shared content");
+        ContentPair pair = new ContentPair(new ContentHolder(shared), new ContentHolder(shared));
+        ContentHolder.WRITES.set(0);
+        ContentHolder.READS.set(0);
+
+        Metadata<ContentPair> metadata = Metadata.of(pair);
+        ContentPair restored = metadata.getDurable();
+
+        assertThat(ContentHolder.WRITES).hasValue(1);
+        assertThat(ContentHolder.READS).hasValue(1);
+        assertThat(restored.first.content).isSameAs(restored.second.content);
+        assertThat(restored.first.content.toString()).isEqualTo("shared content");
+
+        pair.getMetadata();
+        assertThat(ContentHolder.WRITES).hasValue(3);
+    }
+
+    @Test
+    public void equalContentOfDistinctRepresentationsIsRestoredSeparately() throws DurabilityException {
+        ContentPair pair = new ContentPair(new ContentHolder(new StringBuilder("equal content")),
+                new ContentHolder(new StringBuilder("equal content")));
+
+        for (Metadata.Format format : Metadata.Format.values()) {
+            Metadata<ContentPair> metadata = new Metadata<>();
+            metadata.fromBytes(Metadata.of(pair).asBytes(format));
+            ContentPair restored = metadata.getDurable();
+
+            assertThat(restored.first.content).isNotSameAs(restored.second.content);
+            assertThat(restored.first.content.toString()).isEqualTo(restored.second.content.toString()).isEqualTo("equal content");
+        }
+    }
+
+    @AllArgsConstructor
+    public static class ContentHolder implements Durable<ContentHolder> {
+        private static final AtomicInteger WRITES = new AtomicInteger();
+        private static final AtomicInteger READS = new AtomicInteger();
+        private final StringBuilder content;
+
+        @Override
+        public Metadata<ContentHolder> getMetadata() throws DurabilityException {
+            return new Metadata<>(this).withContent("content", this.content, file -> {
+                WRITES.incrementAndGet();
+                Files.writeString(file.toPath(), this.content);
+            });
+        }
+
+        @Override
+        public ComponentBuilder<? super ContentHolder> getBuilder() {
+            return new Builder();
+        }
+
+        public static class Builder implements ComponentBuilder<ContentHolder> {
+            private StringBuilder content;
+
+            public Builder content(InputStream content) throws IOException {
+                this.content = Metadata.readContent(content, stream -> {
+                    READS.incrementAndGet();
+                    return new StringBuilder(new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+                });
+                return this;
+            }
+
+            @Override
+            public ContentHolder build() {
+                return new ContentHolder(this.content);
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    public static class ContentPair implements Durable<ContentPair> {
+        private final ContentHolder first;
+        private final ContentHolder second;
+
+        @Override
+        public Metadata<ContentPair> getMetadata() throws DurabilityException {
+            return new Metadata<>(this).withParameter("first", this.first).withParameter("second", this.second);
+        }
+
+        @Override
+        public ComponentBuilder<? super ContentPair> getBuilder() {
+            return new Builder();
+        }
+
+        public static class Builder implements ComponentBuilder<ContentPair> {
+            private ContentHolder first;
+            private ContentHolder second;
+
+            public Builder first(ContentHolder first) {
+                this.first = first;
+                return this;
+            }
+
+            public Builder second(ContentHolder second) {
+                this.second = second;
+                return this;
+            }
+
+            @Override
+            public ContentPair build() {
+                return new ContentPair(this.first, this.second);
+            }
+        }
+    }
+
     @AllArgsConstructor
     @EqualsAndHashCode
     public static class SimpleClass implements Durable<SimpleClass> {
@@ -17,15 +17,35 @@
 
 package org.mlops4j.storage;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.AsyncKeyValueStorage;
+import org.mlops4j.storage.api.CloseableIterator;
 import org.mlops4j.storage.api.KeyValueStorage;
 import org.mlops4j.storage.api.exception.DurabilityException;
 import org.mlops4j.storage.impl.FileSystemKeyValueStorage;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * @author Michał Żelechowski <MichalZelechowski@github.com>
@@ -51,4 +71,264 @@ public class FileSystemStorageTests {
         assertThat(storage.get("some/key")).contains(object_2);
         assertThat(storage.get("some/long/key")).contains(object_3);
     }
+
+    @Test
+    public void testStreamReadAndWrite() throws DurabilityException, IOException {
+        KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(Files.createTempDir()).build();
+        byte[] object = new byte[100_000];
+        new Random().nextBytes(object);
+        storage.put("some/streamed/key", new ByteArrayInputStream(object));
+
+        assertThat(storage.get("some/streamed/key")).contains(object);
+        Optional<InputStream> stream = storage.getStream("some/streamed/key");
+        assertThat(stream).isPresent();
+        try (InputStream is = stream.get()) {
+            assertThat(is.readAllBytes()).isEqualTo(object);
+        }
+        assertThat(storage.getStream("some/missing/key")).isEmpty();
+    }
+
+    @Test
+    public void testMappedRead() throws DurabilityException {
+        KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(Files.createTempDir()).build();
+        byte[] object = new byte[10_000];
+        new Random().nextBytes(object);
+        storage.put("some/mapped/key", object);
+
+        Optional<ByteBuffer> buffer = storage.getBuffer("some/mapped/key");
+        assertThat(buffer).isPresent();
+        assertThat(buffer.get().isReadOnly()).isTrue();
+        byte[] read = new byte[buffer.get().remaining()];
+        buffer.get().get(read);
+        assertThat(read).isEqualTo(object);
+        assertThat(storage.getBuffer("some/missing/key")).isEmpty();
+    }
+
+    @Test
+    public void testPaginatedList() throws DurabilityException {
+        KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(Files.createTempDir()).build();
+        for (String key : new String[]{"models/b", "models/a/2", "models/a-c", "models/a/1", "content/x", "modelsx"}) {
+            storage.put(key, new byte[]{1});
+        }
+
+        assertThat(storage.list("models")).toIterable().containsExactly("a-c", "a/1", "a/2", "b");
+        assertThat(storage.list("models", null, 2)).toIterable().containsExactly("a-c", "a/1");
+        assertThat(storage.list("models", "a/1", 2)).toIterable().containsExactly("a/2", "b");
+        assertThat(storage.list("models", "a/0", 10)).toIterable().containsExactly("a/1", "a/2", "b");
+        assertThat(storage.list("models", "b", 10)).toIterable().isEmpty();
+    }
+
+    @Test
+    public void testBatchReadAndWrite() throws DurabilityException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(Files.createTempDir())
+                    .parallelism(3).executor(executor).build();
+            Map<String, byte[]> values = IntStream.range(0, 20).boxed()
+                    .collect(Collectors.toMap(i -> "content/" + i, i -> new byte[]{i.byteValue()}));
+            storage.putAll(values);
+
+            List<String> keys = IntStream.range(0, 25).mapToObj(i -> "content/" + i).collect(Collectors.toList());
+            Map<String, byte[]> result = storage.getAll(keys);
+
+            assertThat(result).hasSize(20);
+            assertThat(result.get("content/7")).containsExactly(7);
+            assertThat(result).doesNotContainKey("content/20");
+            assertThat(storage.getAll(List.of())).isEmpty();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncReadAndWrite() throws DurabilityException, ExecutionException, InterruptedException {
+        KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(Files.createTempDir()).build();
+        AsyncKeyValueStorage async = storage.async();
+        byte[] object = new byte[100_000];
+        new Random().nextBytes(object);
+
+        async.put("some/long/key", object).get();
+
+        assertThat(storage.get("some/long/key")).hasValue(object);
+        assertThat(async.get("some/long/key").get()).hasValue(object);
+        assertThat(async.get("missing").get()).isEmpty();
+        assertThat(async.put("empty", new byte[0]).thenCompose(nothing -> async.get("empty")).get()).hasValue(new byte[0]);
+    }
+
+    @Test
+    public void testShardedLayoutIsTransparent() throws DurabilityException {
+        File root = Files.createTempDir();
+        KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(root).shardDepth(2).build();
+        for (String key : new String[]{"models/b", "models/a/2", "models/a-c", "models/a/1", "content/x", "modelsx"}) {
+            storage.put(key, key.getBytes());
+        }
+
+        assertThat(new File(root, "models/b")).doesNotExist();
+        assertThat(storage.get("models/b")).contains("models/b".getBytes());
+        assertThat(storage.list("models")).toIterable().containsExactly("a-c", "a/1", "a/2", "b");
+        assertThat(storage.list("models", "a/1", 2)).toIterable().containsExactly("a/2", "b");
+        assertThat(storage.list()).toIterable().containsExactly("content/x", "models/a-c", "models/a/1", "models/a/2", "models/b", "modelsx");
+    }
+
+    @Test
+    public void testMigrationFromFlatLayout() throws DurabilityException {
+        File root = Files.createTempDir();
+        KeyValueStorage flat = new FileSystemKeyValueStorage.Builder().root(root).build();
+        flat.put("content/a", new byte[]{1});
+        flat.put("content/b", new byte[]{2});
+        FileSystemKeyValueStorage sharded = (FileSystemKeyValueStorage) new FileSystemKeyValueStorage.Builder()
+                .root(root).shardDepth(1).build();
+
+        assertThat(sharded.get("content/a")).contains(new byte[]{1});
+        sharded.put("content/b", new byte[]{3});
+        assertThat(new File(root, "content/b")).doesNotExist();
+
+        assertThat(sharded.migrate()).isEqualTo(1);
+
+        assertThat(new File(root, "content/a")).doesNotExist();
+        assertThat(sharded.get("content/a")).contains(new byte[]{1});
+        assertThat(sharded.get("content/b")).contains(new byte[]{3});
+        assertThat(sharded.list("content")).toIterable().containsExactly("a", "b");
+    }
+
+    @Test
+    public void testConcurrentAtomicWrites() throws DurabilityException {
+        Map<String, byte[]> values = IntStream.range(0, 64).boxed()
+                .collect(Collectors.toMap(i -> "models/" + (i % 8) + "/" + i, i -> new byte[]{i.byteValue()}));
+        for (FileSystemKeyValueStorage.Durability durability : FileSystemKeyValueStorage.Durability.values()) {
+            File root = Files.createTempDir();
+            KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(root).durability(durability).build();
+
+            storage.putAll(values);
+
+            assertThat(storage.list("models")).toIterable().describedAs(durability.name()).hasSize(64);
+            assertThat(storage.get("models/3/11")).contains(new byte[]{11});
+            assertThat(FileUtils.listFiles(root, null, true)).describedAs(durability.name()).hasSize(64);
+        }
+    }
+
+    @Test
+    public void testHiddenKeysAreRejected() {
+        KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(Files.createTempDir()).build();
+
+        assertThatThrownBy(() -> storage.put("models/.hidden", new byte[]{1})).isInstanceOf(DurabilityException.class);
+    }
+
+    @Test
+    public void testKeyFilterAnswersMissesWithoutDisk() throws DurabilityException, IOException {
+        File root = Files.createTempDir();
+        new FileSystemKeyValueStorage.Builder().root(root).shardDepth(1).build().put("models/existing", new byte[]{1});
+        FileSystemKeyValueStorage storage = (FileSystemKeyValueStorage) new FileSystemKeyValueStorage.Builder()
+                .root(root).shardDepth(1).keyFilter(true).exactKeys(true).build();
+        // written behind the back of the storage, hence invisible through the filter
+        Files.write(new byte[]{2}, new File(root, "models/unknown"));
+
+        assertThat(storage.get("models/existing")).contains(new byte[]{1});
+        assertThat(storage.get("models/unknown")).isEmpty();
+        assertThat(storage.async().get("models/unknown").join()).isEmpty();
+
+        new FileSystemKeyValueStorage.Builder().root(root).shardDepth(1).build().put("models/unknown", new byte[]{3});
+        assertThat(storage.get("models/unknown")).contains(new byte[]{3});
+
+        storage.persistKeyFilter();
+        assertThat(storage.getMetadata().getDurable()).isInstanceOf(FileSystemKeyValueStorage.class);
+        assertThat(storage.list("models")).toIterable().containsExactly("existing", "unknown");
+    }
+
+    @Test
+    public void testKeyFilterFollowsConcurrentPutAndDelete() throws Exception {
+        File root = Files.createTempDir();
+        KeyValueStorage filtered = new FileSystemKeyValueStorage.Builder().root(root).keyFilter(true).exactKeys(true).build();
+        KeyValueStorage unfiltered = new FileSystemKeyValueStorage.Builder().root(root).build();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                String key = "models/" + i;
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> put = executor.submit(() -> {
+                    start.await();
+                    filtered.put(key, new byte[]{1});
+                    return null;
+                });
+                Future<?> delete = executor.submit(() -> {
+                    start.await();
+                    filtered.delete(key);
+                    return null;
+                });
+                start.countDown();
+                put.get();
+                delete.get();
+
+                assertThat(filtered.get(key).isPresent()).as(key).isEqualTo(unfiltered.get(key).isPresent());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testScanReadsEntriesAhead() throws DurabilityException {
+        KeyValueStorage storage = new FileSystemKeyValueStorage.Builder().root(Files.createTempDir())
+                .shardDepth(1).parallelism(4).build();
+        for (int i = 0; i < 20; i++) {
+            storage.put(String.format("models/%02d", i), new byte[]{(byte) i});
+        }
+        storage.put("other/key", new byte[]{100});
+
+        try (CloseableIterator<Map.Entry<String, byte[]>> entries = storage.scan("models")) {
+            List<Map.Entry<String, byte[]>> scanned = Lists.newArrayList(entries);
+            assertThat(scanned).extracting(Map.Entry::getKey)
+                    .containsExactlyElementsOf(IntStream.range(0, 20).mapToObj(i -> String.format("%02d", i)).collect(Collectors.toList()));
+            assertThat(scanned.get(7).getValue()).containsExactly(7);
+        }
+        try (CloseableIterator<byte[]> values = storage.scanValues("models")) {
+            assertThat(values.next()).containsExactly(0);
+        }
+    }
+
+    @Test
+    public void testSmallKeysArePacked() throws DurabilityException, IOException {
+        File root = Files.createTempDir();
+        FileSystemKeyValueStorage storage = (FileSystemKeyValueStorage) new FileSystemKeyValueStorage.Builder().root(root)
+                .shardDepth(1).packAge(0).packValueSize(10).packSize(25).build();
+        for (int i = 0; i < 20; i++) {
+            storage.put(String.format("evaluations/%02d", i), new byte[]{(byte) i, 0, 0, 0, 0});
+        }
+        storage.put("evaluations/large", new byte[100]);
+
+        assertThat(storage.pack()).isEqualTo(20);
+        assertThat(FileUtils.listFiles(root, null, true)).filteredOn(f -> !f.getPath().contains(".packs")).hasSize(1);
+        assertThat(storage.get("evaluations/07")).contains(new byte[]{7, 0, 0, 0, 0});
+        assertThat(storage.getBuffer("evaluations/07")).contains(ByteBuffer.wrap(new byte[]{7, 0, 0, 0, 0}));
+        assertThat(storage.getStream("evaluations/07").orElseThrow().readAllBytes()).containsExactly(7, 0, 0, 0, 0);
+        assertThat(storage.async().get("evaluations/08").join()).contains(new byte[]{8, 0, 0, 0, 0});
+        assertThat(storage.list("evaluations", "17", 3)).toIterable().containsExactly("18", "19", "large");
+
+        storage.put("evaluations/03", new byte[]{33});
+        storage.delete("evaluations/04");
+        assertThat(storage.get("evaluations/03")).contains(new byte[]{33});
+        assertThat(storage.get("evaluations/04")).isEmpty();
+        assertThat(storage.list("evaluations")).toIterable().hasSize(20).doesNotContain("04");
+
+        assertThat(storage.pack()).isEqualTo(1);
+        storage.delete("evaluations/03");
+        assertThat(storage.get("evaluations/03")).isEmpty();
+        assertThat(storage.getMetadata().getDurable()).isInstanceOf(FileSystemKeyValueStorage.class);
+    }
+
+    @Test
+    public void testPacksAreOpenedOnlyOncePackingStarts() throws DurabilityException {
+        File root = Files.createTempDir();
+        KeyValueStorage reader = new FileSystemKeyValueStorage.Builder().root(root).build();
+        FileSystemKeyValueStorage packer = (FileSystemKeyValueStorage) new FileSystemKeyValueStorage.Builder().root(root)
+                .packAge(0).build();
+        packer.put("evaluations/01", new byte[]{1});
+        assertThat(new File(root, ".packs")).doesNotExist();
+
+        assertThat(packer.pack()).isEqualTo(1);
+        assertThat(reader.get("evaluations/01")).contains(new byte[]{1});
+        reader.delete("evaluations/01");
+        assertThat(packer.get("evaluations/01")).isEmpty();
+        assertThat(new FileSystemKeyValueStorage.Builder().root(root).build().list("evaluations")).isExhausted();
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.CloseableIterator;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class InMemoryStorageTests {
+
+    @Test
+    public void testStreamReadAndWrite() throws DurabilityException, IOException {
+        KeyValueStorage storage = new InMemoryKeyValueStorage.Builder().build();
+        byte[] object = new byte[100_000];
+        new Random().nextBytes(object);
+        storage.put("some/streamed/key", new ByteArrayInputStream(object));
+
+        assertThat(storage.get("some/streamed/key")).contains(object);
+        Optional<InputStream> stream = storage.getStream("some/streamed/key");
+        assertThat(stream).isPresent();
+        try (InputStream is = stream.get()) {
+            assertThat(is.readAllBytes()).isEqualTo(object);
+        }
+        assertThat(storage.getStream("some/missing/key")).isEmpty();
+    }
+
+    @Test
+    public void testPaginatedList() throws DurabilityException {
+        KeyValueStorage storage = new InMemoryKeyValueStorage.Builder().build();
+        for (String key : new String[]{"models/b", "models/a/2", "models/a-c", "models/a/1", "content/x", "modelsx"}) {
+            storage.put(key, new byte[]{1});
+        }
+
+        assertThat(storage.list("models")).toIterable().containsExactly("a-c", "a/1", "a/2", "b");
+        assertThat(storage.list("models", null, 2)).toIterable().containsExactly("a-c", "a/1");
+        assertThat(storage.list("models", "a/1", 2)).toIterable().containsExactly("a/2", "b");
+        assertThat(storage.list("models", "a/0", 10)).toIterable().containsExactly("a/1", "a/2", "b");
+        assertThat(storage.list("models", "b", 10)).toIterable().isEmpty();
+    }
+
+    @Test
+    public void testBatchReadAndWrite() throws DurabilityException {
+        KeyValueStorage storage = new InMemoryKeyValueStorage.Builder().build();
+        storage.putAll(Map.of("a", new byte[]{1}, "b", new byte[]{2}));
+
+        Map<String, byte[]> result = storage.getAll(List.of("a", "b", "c"));
+
+        assertThat(result).containsOnlyKeys("a", "b");
+        assertThat(result.get("b")).containsExactly(2);
+    }
+
+    @Test
+    public void testScan() throws DurabilityException {
+        KeyValueStorage storage = new InMemoryKeyValueStorage.Builder().build();
+        storage.put("models/b", new byte[]{2});
+        storage.put("models/a", new byte[]{1});
+        storage.put("modelsx", new byte[]{3});
+
+        try (CloseableIterator<Map.Entry<String, byte[]>> entries = storage.scan("models")) {
+            Map.Entry<String, byte[]> first = entries.next();
+            assertThat(first.getKey()).isEqualTo("a");
+            assertThat(first.getValue()).containsExactly(1);
+            assertThat(entries.next().getKey()).isEqualTo("b");
+            assertThat(entries.hasNext()).isFalse();
+        }
+        try (CloseableIterator<byte[]> values = storage.scanValues("")) {
+            assertThat(values).toIterable().hasSize(3);
+        }
+    }
+
+    @Test
+    public void testRestoreFromSnapshotAndLog() throws DurabilityException, IOException {
+        File directory = Files.createTempDirectory("snapshots").toFile();
+        InMemoryKeyValueStorage storage = (InMemoryKeyValueStorage) new InMemoryKeyValueStorage.Builder()
+                .name("snapshotted").snapshotDirectory(directory).snapshotInterval(0).build();
+        for (int i = 0; i < 100; i++) {
+            storage.put("models/" + i, new byte[]{(byte) i});
+        }
+        // spread over more than one section of the snapshot
+        storage.put("large/1", new byte[5 * 1024 * 1024]);
+        storage.put("large/2", new byte[5 * 1024 * 1024]);
+
+        assertThat(storage.snapshot()).isEqualTo(102);
+        storage.put("models/100", new byte[]{100});
+        storage.put("models/1", new byte[]{-1});
+        storage.delete("models/0");
+
+        // restart is simulated with a copy restored under another name
+        FileUtils.copyDirectory(new File(directory, "snapshotted"), new File(directory, "restarted"));
+        KeyValueStorage restarted = new InMemoryKeyValueStorage.Builder()
+                .name("restarted").snapshotDirectory(directory).snapshotInterval(0).build();
+
+        assertThat(restarted.list("models")).toIterable().hasSize(100).doesNotContain("0").contains("100");
+        assertThat(restarted.get("models/1")).contains(new byte[]{-1});
+        assertThat(restarted.get("large/2")).hasValueSatisfying(value -> assertThat(value).hasSize(5 * 1024 * 1024));
+        assertThat(restarted.getMetadata().getDurable()).isInstanceOf(InMemoryKeyValueStorage.class);
+    }
+
+    @Test
+    public void testStoragesOfTheSameNameShareSnapshotLog() throws DurabilityException, IOException {
+        File directory = Files.createTempDirectory("snapshots").toFile();
+        new InMemoryKeyValueStorage.Builder().name("shared").snapshotDirectory(directory).snapshotInterval(0).build();
+        new InMemoryKeyValueStorage.Builder().name("shared").build().put("models/1", new byte[]{1});
+
+        FileUtils.copyDirectory(new File(directory, "shared"), new File(directory, "shared-restarted"));
+        KeyValueStorage restarted = new InMemoryKeyValueStorage.Builder()
+                .name("shared-restarted").snapshotDirectory(directory).snapshotInterval(0).build();
+        assertThat(restarted.get("models/1")).contains(new byte[]{1});
+
+        new InMemoryKeyValueStorage.Builder().name("unlogged").build().put("models/1", new byte[]{1});
+        assertThatThrownBy(() -> new InMemoryKeyValueStorage.Builder().name("unlogged").snapshotDirectory(directory).build())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("unlogged");
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage;
+
+import com.google.common.io.Files;
+import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.LogStructuredKeyValueStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class LogStructuredStorageTests {
+
+    @Test
+    public void testReadAndWrite() throws DurabilityException, IOException {
+        KeyValueStorage storage = new LogStructuredKeyValueStorage.Builder().root(Files.createTempDir()).build();
+        Random rnd = new Random();
+        byte[] object_1 = new byte[100];
+        byte[] object_2 = new byte[1000];
+        byte[] object_3 = new byte[5];
+        rnd.nextBytes(object_1);
+        rnd.nextBytes(object_2);
+        rnd.nextBytes(object_3);
+        storage.put("some_key", object_1);
+        storage.put("some/key", object_2);
+        storage.put("some/long/key", new ByteArrayInputStream(object_3));
+
+        assertThat(storage.get("some_key")).contains(object_1);
+        assertThat(storage.get("some/key")).contains(object_2);
+        try (InputStream is = storage.getStream("some/long/key").orElseThrow()) {
+            assertThat(is.readAllBytes()).isEqualTo(object_3);
+        }
+        assertThat(storage.get("missing")).isEmpty();
+        assertThat(storage.list("some/long")).toIterable().containsExactly("key");
+    }
+
+    @Test
+    public void testCompactionThresholdOutsideUnitRangeIsRejected() {
+        File root = Files.createTempDir();
+        for (double threshold : new double[]{0.0, -0.5, 1.5}) {
+            assertThatThrownBy(() -> new LogStructuredKeyValueStorage.Builder().root(root).compactionThreshold(threshold).build())
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Compaction threshold");
+        }
+        assertThat(new LogStructuredKeyValueStorage.Builder().root(root).compactionThreshold(1.0).build()).isNotNull();
+    }
+
+    @Test
+    public void testIndexIsRecoveredAfterReopen() throws DurabilityException, IOException {
+        File root = Files.createTempDir();
+        LogStructuredKeyValueStorage storage = (LogStructuredKeyValueStorage) new LogStructuredKeyValueStorage.Builder()
+                .root(root).segmentSize(1024).build();
+        Random rnd = new Random();
+        byte[][] values = new byte[20][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new byte[300];
+            rnd.nextBytes(values[i]);
+            storage.put("key/" + i % 10, values[i]);
+        }
+        storage.close();
+
+        KeyValueStorage reopened = new LogStructuredKeyValueStorage.Builder().root(root).segmentSize(1024).build();
+        assertThat(reopened).isNotSameAs(storage);
+        for (int i = 10; i < values.length; i++) {
+            assertThat(reopened.get("key/" + i % 10)).contains(values[i]);
+        }
+    }
+
+    @Test
+    public void testCompactionRemovesOverwrittenSegments() throws DurabilityException, IOException {
+        File root = Files.createTempDir();
+        LogStructuredKeyValueStorage storage = (LogStructuredKeyValueStorage) new LogStructuredKeyValueStorage.Builder()
+                .root(root).segmentSize(1024).build();
+        byte[] value = new byte[300];
+        for (int i = 0; i < 50; i++) {
+            value[0] = (byte) i;
+            storage.put("key/" + i % 2, value);
+        }
+        int segmentsBefore = root.list((dir, name) -> name.endsWith(".log")).length;
+        storage.compact();
+        int segmentsAfter = root.list((dir, name) -> name.endsWith(".log")).length;
+
+        assertThat(segmentsAfter).isLessThan(segmentsBefore);
+        assertThat(storage.get("key/0").orElseThrow()[0]).isEqualTo((byte) 48);
+        assertThat(storage.get("key/1").orElseThrow()[0]).isEqualTo((byte) 49);
+        storage.close();
+
+        KeyValueStorage reopened = new LogStructuredKeyValueStorage.Builder().root(root).build();
+        assertThat(reopened.get("key/0").orElseThrow()[0]).isEqualTo((byte) 48);
+        assertThat(reopened.get("key/1").orElseThrow()[0]).isEqualTo((byte) 49);
+    }
+
+    @Test
+    public void testDeletesSurviveCompactionAndReopen() throws DurabilityException, IOException {
+        File root = Files.createTempDir();
+        LogStructuredKeyValueStorage storage = (LogStructuredKeyValueStorage) new LogStructuredKeyValueStorage.Builder()
+                .root(root).segmentSize(1024).build();
+        byte[] value = new byte[300];
+        for (int i = 0; i < 10; i++) {
+            storage.put("key/" + i, value);
+        }
+        for (int i = 0; i < 10; i += 2) {
+            storage.delete("key/" + i);
+        }
+        storage.put("key/0", new byte[]{7});
+        storage.compact();
+
+        assertThat(storage.list("key")).toIterable().containsExactly("0", "1", "3", "5", "7", "9");
+        storage.close();
+
+        KeyValueStorage reopened = new LogStructuredKeyValueStorage.Builder().root(root).segmentSize(1024).build();
+        assertThat(reopened.list("key")).toIterable().containsExactly("0", "1", "3", "5", "7", "9");
+        assertThat(reopened.get("key/0")).contains(new byte[]{7});
+        assertThat(reopened.get("key/2")).isEmpty();
+    }
+}
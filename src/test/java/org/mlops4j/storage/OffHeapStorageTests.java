@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage;
+
+import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.OffHeapKeyValueStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class OffHeapStorageTests {
+
+    @Test
+    public void testReadAndWrite() throws DurabilityException {
+        OffHeapKeyValueStorage storage = (OffHeapKeyValueStorage) new OffHeapKeyValueStorage.Builder()
+                .capacity(1024L * 1024).slabSize(64 * 1024).build();
+        Random rnd = new Random();
+        byte[] object_1 = new byte[100];
+        byte[] object_2 = new byte[1000];
+        rnd.nextBytes(object_1);
+        rnd.nextBytes(object_2);
+        storage.put("some/key", object_1);
+        storage.put("some/long/key", object_2);
+
+        assertThat(storage.get("some/key")).contains(object_1);
+        ByteBuffer view = storage.getBuffer("some/long/key").orElseThrow();
+        assertThat(view.isReadOnly()).isTrue();
+        assertThat(view).isEqualTo(ByteBuffer.wrap(object_2));
+        storage.put("some/long/key", new byte[1000]);
+        assertThat(view).isEqualTo(ByteBuffer.wrap(object_2));
+        assertThat(storage.list("some")).toIterable().containsExactly("key", "long/key");
+        assertThat(storage.getUsed()).isEqualTo(104 + 1000);
+        assertThat(storage.getReserved()).isEqualTo(64 * 1024);
+    }
+
+    @Test
+    public void testOverwrittenSpaceIsReused() throws DurabilityException {
+        OffHeapKeyValueStorage storage = (OffHeapKeyValueStorage) new OffHeapKeyValueStorage.Builder()
+                .capacity(64L * 1024).slabSize(64 * 1024).build();
+        byte[] value = new byte[10_000];
+        for (int i = 0; i < 100; i++) {
+            value[0] = (byte) i;
+            storage.put("key/" + i % 3, value);
+        }
+
+        assertThat(storage.getUsed()).isEqualTo(3 * 10_000);
+        assertThat(storage.get("key/0").orElseThrow()[0]).isEqualTo((byte) 99);
+        assertThatThrownBy(() -> storage.put("key/large", new byte[40_000])).isInstanceOf(DurabilityException.class);
+    }
+
+    @Test
+    public void testStreamedRegionIsReleasedWhenClosed() throws DurabilityException, IOException {
+        OffHeapKeyValueStorage storage = (OffHeapKeyValueStorage) new OffHeapKeyValueStorage.Builder()
+                .capacity(64L * 1024).slabSize(64 * 1024).build();
+        byte[] value = new byte[30_000];
+        Arrays.fill(value, (byte) 1);
+        storage.put("key", value);
+
+        try (InputStream stream = storage.getStream("key").orElseThrow()) {
+            storage.delete("key");
+            assertThatThrownBy(() -> storage.put("other", new byte[40_000])).isInstanceOf(DurabilityException.class);
+            storage.put("other", new byte[30_000]);
+            assertThat(stream.readAllBytes()).isEqualTo(value);
+            assertThat(storage.getUsed()).isEqualTo(60_000);
+        }
+        assertThat(storage.getUsed()).isEqualTo(30_000);
+    }
+
+    @Test
+    public void testOverwriteReusesSpaceOfReplacedValue() throws DurabilityException {
+        OffHeapKeyValueStorage storage = (OffHeapKeyValueStorage) new OffHeapKeyValueStorage.Builder()
+                .capacity(64L * 1024).slabSize(64 * 1024).build();
+        storage.put("key", new byte[40_000]);
+        byte[] value = new byte[50_000];
+        Arrays.fill(value, (byte) 7);
+
+        storage.put("key", value);
+
+        assertThat(storage.get("key")).contains(value);
+        assertThat(storage.getUsed()).isEqualTo(50_000);
+        assertThatThrownBy(() -> storage.put("key", new byte[70_000])).isInstanceOf(DurabilityException.class);
+        storage.put("other", new byte[10_000]);
+        assertThatThrownBy(() -> storage.put("key", new byte[60_000])).isInstanceOf(DurabilityException.class);
+        assertThat(storage.get("key")).contains(value);
+        assertThat(storage.getUsed()).isEqualTo(60_000);
+    }
+
+    @Test
+    public void testMetadataRestoresSameArena() throws DurabilityException {
+        KeyValueStorage storage = new OffHeapKeyValueStorage.Builder().name("offheap-metadata").build();
+        storage.put("key", new byte[]{1, 2, 3});
+
+        KeyValueStorage restored = storage.getMetadata().getDurable();
+        assertThat(restored.get("key")).contains(new byte[]{1, 2, 3});
+    }
+}
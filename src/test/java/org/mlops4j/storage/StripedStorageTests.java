@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.FileSystemKeyValueStorage;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+import org.mlops4j.storage.impl.StripedKeyValueStorage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class StripedStorageTests {
+
+    @Test
+    public void testKeysAreSpreadAndListedInOrder() throws DurabilityException {
+        List<KeyValueStorage> shards = IntStream.range(0, 3)
+                .mapToObj(i -> new InMemoryKeyValueStorage.Builder().build())
+                .collect(Collectors.toList());
+        KeyValueStorage storage = new StripedKeyValueStorage.Builder().shards(shards).build();
+        List<String> keys = IntStream.range(0, 100).mapToObj(i -> String.format("%03d", i)).collect(Collectors.toList());
+        storage.putAll(keys.stream().collect(Collectors.toMap(key -> "models/" + key, key -> key.getBytes())));
+
+        for (KeyValueStorage shard : shards) {
+            assertThat(Iterators.size(shard.list("models"))).isBetween(10, 60);
+        }
+        assertThat(storage.list("models")).toIterable().containsExactlyElementsOf(keys);
+        assertThat(storage.list("models", "049", 3)).toIterable().containsExactly("050", "051", "052");
+        assertThat(storage.get("models/042")).contains("042".getBytes());
+        assertThat(storage.getAll(List.of("models/001", "models/099", "models/missing"))).containsOnlyKeys("models/001", "models/099");
+    }
+
+    @Test
+    public void testAddedShardIsRebalanced() throws DurabilityException {
+        List<KeyValueStorage> shards = IntStream.range(0, 3)
+                .mapToObj(i -> new FileSystemKeyValueStorage.Builder().root(Files.createTempDir()).build())
+                .collect(Collectors.toList());
+        KeyValueStorage original = new StripedKeyValueStorage.Builder().shards(shards.subList(0, 2)).build();
+        Map<String, byte[]> values = IntStream.range(0, 100).boxed()
+                .collect(Collectors.toMap(i -> "content/" + i, i -> new byte[]{i.byteValue()}));
+        original.putAll(values);
+
+        StripedKeyValueStorage extended = (StripedKeyValueStorage) new StripedKeyValueStorage.Builder()
+                .shards(shards).settledShards(2).build();
+        assertThat(extended.getAll(values.keySet())).hasSize(100);
+        extended.put("content/7", new byte[]{-7});
+
+        long moved = extended.rebalance();
+
+        assertThat(moved).isBetween(10L, 60L);
+        assertThat(Iterators.size(shards.get(2).list("content"))).isGreaterThan(10);
+        assertThat(extended.list("content")).toIterable().hasSize(100);
+        assertThat(extended.get("content/7")).contains(new byte[]{-7});
+        assertThat(extended.get("content/8")).contains(new byte[]{8});
+        int stored = 0;
+        for (KeyValueStorage shard : shards) {
+            stored += Iterators.size(shard.list("content"));
+        }
+        assertThat(stored).isEqualTo(100);
+
+        KeyValueStorage restored = extended.getMetadata().getDurable();
+        assertThat(restored.getMetadata().asBytes()).isEqualTo(extended.getMetadata().asBytes());
+        assertThat(restored.get("content/9")).contains(new byte[]{9});
+    }
+
+    @Test
+    public void testKeysStayReadableWhileRebalancing() throws Exception {
+        List<KeyValueStorage> shards = IntStream.range(0, 3)
+                .mapToObj(i -> new FileSystemKeyValueStorage.Builder().root(Files.createTempDir()).build())
+                .collect(Collectors.toList());
+        Map<String, byte[]> values = IntStream.range(0, 500).boxed()
+                .collect(Collectors.toMap(i -> "content/" + i, i -> new byte[]{i.byteValue()}));
+        new StripedKeyValueStorage.Builder().shards(shards.subList(0, 2)).build().putAll(values);
+        StripedKeyValueStorage extended = (StripedKeyValueStorage) new StripedKeyValueStorage.Builder()
+                .shards(shards).settledShards(2).build();
+
+        CompletableFuture<Long> rebalance = CompletableFuture.supplyAsync(() -> {
+            try {
+                return extended.rebalance();
+            } catch (DurabilityException e) {
+                throw new CompletionException(e);
+            }
+        });
+        Set<String> missing = Sets.newHashSet();
+        while (!rebalance.isDone()) {
+            for (String key : values.keySet()) {
+                if (extended.get(key).isEmpty()) {
+                    missing.add(key);
+                }
+            }
+        }
+
+        assertThat(rebalance.join()).isPositive();
+        assertThat(missing).isEmpty();
+    }
+}
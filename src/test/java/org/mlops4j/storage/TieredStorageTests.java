@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage;
+
+import com.google.common.io.Files;
+import org.junit.jupiter.api.Test;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.FileSystemKeyValueStorage;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+import org.mlops4j.storage.impl.TieredKeyValueStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+
+public class TieredStorageTests {
+
+    @Test
+    public void testLeastRecentlyUsedValuesAreDemotedAndPromotedOnRead() throws DurabilityException {
+        KeyValueStorage cold = spy(new InMemoryKeyValueStorage.Builder().build());
+        TieredKeyValueStorage storage = (TieredKeyValueStorage) new TieredKeyValueStorage.Builder()
+                .cold(cold).hotCapacity(2L).build();
+        storage.put("models/a", new byte[]{1});
+        storage.put("models/b", new byte[]{2});
+        storage.put("models/c", new byte[]{3});
+
+        assertThat(storage.getResidentBytes()).isEqualTo(2);
+        assertThat(cold.get("models/a")).contains(new byte[]{1});
+        assertThat(storage.get("models/b")).contains(new byte[]{2});
+        verify(cold, never()).get("models/b");
+
+        assertThat(storage.get("models/a")).contains(new byte[]{1});
+        assertThat(storage.get("models/a")).contains(new byte[]{1});
+        verify(cold, times(2)).get("models/a");
+        assertThat(storage.getResidentBytes()).isEqualTo(2);
+    }
+
+    @Test
+    public void testWritesReachColdTier() throws DurabilityException {
+        KeyValueStorage cold = new FileSystemKeyValueStorage.Builder().root(Files.createTempDir()).build();
+        TieredKeyValueStorage storage = (TieredKeyValueStorage) new TieredKeyValueStorage.Builder()
+                .cold(cold).maximumValueSize(4).build();
+        for (int i = 0; i < 20; i++) {
+            storage.put("models/" + i % 5, new byte[]{(byte) i});
+        }
+        storage.put("content/large", new byte[10]);
+
+        assertThat(storage.list("models")).toIterable().hasSize(5);
+        storage.flush();
+        assertThat(cold.get("models/4")).contains(new byte[]{19});
+        assertThat(cold.get("content/large")).contains(new byte[10]);
+        assertThat(storage.getResidentBytes()).isEqualTo(5);
+
+        storage.delete("models/4");
+        assertThat(storage.get("models/4")).isEmpty();
+        assertThat(cold.get("models/4")).isEmpty();
+    }
+
+    @Test
+    public void testMetadataPersistsConfiguration() throws DurabilityException {
+        KeyValueStorage storage = new TieredKeyValueStorage.Builder()
+                .hot(new InMemoryKeyValueStorage.Builder().name("tiered-hot").build())
+                .cold(new InMemoryKeyValueStorage.Builder().name("tiered-cold").build())
+                .hotCapacity(1024L)
+                .build();
+        storage.put("models/a", new byte[]{1});
+
+        KeyValueStorage restored = storage.getMetadata().getDurable();
+        assertThat(restored).isInstanceOf(TieredKeyValueStorage.class);
+        assertThat(restored.get("models/a")).contains(new byte[]{1});
+        assertThat(((TieredKeyValueStorage) restored).getResidentBytes()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.benchmark;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.FileSystemKeyValueStorage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput of concurrent {@link FileSystemKeyValueStorage#put(String, byte[])} of metadata sized values with
+ * every {@link FileSystemKeyValueStorage.Durability} policy.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class AtomicWriteBenchmark {
+    private static final int KEYS = 1024;
+
+    @Param({"NONE", "FSYNC", "GROUP_COMMIT"})
+    private String durability;
+
+    @Param({"4096"})
+    private int size;
+
+    private File root;
+    private KeyValueStorage storage;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.root = Files.createTempDir();
+        this.storage = new FileSystemKeyValueStorage.Builder().root(this.root).durability(this.durability).build();
+        this.value = new byte[this.size];
+        new Random(0).nextBytes(this.value);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.root);
+    }
+
+    @Benchmark
+    public void put() throws DurabilityException {
+        this.storage.put("models/" + ThreadLocalRandom.current().nextInt(KEYS), this.value);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AtomicWriteBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.benchmark;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.mlops4j.storage.api.KeyValueStorage;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.FileSystemKeyValueStorage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares copying reads of {@link FileSystemKeyValueStorage#get(String)} with memory mapped reads of
+ * {@link FileSystemKeyValueStorage#getBuffer(String)}. Both variants consume whole value, so page faults of mapped
+ * region are included in the measurement.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MappedReadBenchmark {
+    private static final String KEY = "content/value";
+
+    @Param({"1024", "65536", "1048576", "16777216", "268435456", "1073741824"})
+    private int size;
+
+    private File root;
+    private KeyValueStorage storage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DurabilityException, IOException {
+        this.root = Files.createTempDir();
+        this.storage = new FileSystemKeyValueStorage.Builder().root(this.root).build();
+        byte[] chunk = new byte[1 << 20];
+        new Random(0).nextBytes(chunk);
+        File target = new File(this.root, KEY);
+        try (OutputStream os = FileUtils.openOutputStream(target)) {
+            for (int written = 0; written < this.size; written += chunk.length) {
+                os.write(chunk, 0, Math.min(chunk.length, this.size - written));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.root);
+    }
+
+    @Benchmark
+    public long copyingRead() throws DurabilityException {
+        return checksum(ByteBuffer.wrap(this.storage.get(KEY).orElseThrow()));
+    }
+
+    @Benchmark
+    public long mappedRead() throws DurabilityException {
+        return checksum(this.storage.getBuffer(KEY).orElseThrow());
+    }
+
+    private static long checksum(ByteBuffer buffer) {
+        long sum = 0;
+        while (buffer.remaining() >= Long.BYTES) {
+            sum += buffer.getLong();
+        }
+        while (buffer.hasRemaining()) {
+            sum += buffer.get();
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MappedReadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
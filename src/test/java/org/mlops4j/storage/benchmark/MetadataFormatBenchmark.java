@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.benchmark;
+
+import com.google.common.collect.Lists;
+import org.mlops4j.evaluation.impl.dl4j.DL4JEvaluation;
+import org.mlops4j.evaluation.impl.dl4j.DL4JModelEvaluator;
+import org.mlops4j.inference.impl.dl4j.DL4JInference;
+import org.mlops4j.model.impl.BaseModel;
+import org.mlops4j.model.impl.dl4j.DL4JModelConfiguration;
+import org.mlops4j.model.registry.impl.KeyValueModelRegistry;
+import org.mlops4j.storage.api.Metadata;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.FileSystemKeyValueStorage;
+import org.mlops4j.training.impl.dl4j.DL4JTrainer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding of {@link Metadata} in JSON and binary format, for metadata shaped like the one of a
+ * model with its components and a number of evaluations. Sizes of both encodings are printed at setup.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataFormatBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int evaluations;
+
+    private Metadata<?> metadata;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DurabilityException {
+        List<Metadata<?>> evaluations = Lists.newArrayList();
+        for (int i = 0; i < this.evaluations; i++) {
+            evaluations.add(new Metadata<>(new DL4JEvaluation.Builder())
+                    .withParameter("value", ("{\"accuracy\":0." + i + "}").getBytes(StandardCharsets.UTF_8))
+                    .withParameter("type", "org.nd4j.evaluation.classification.Evaluation")
+                    .withParameter("dataSetId", "mnist/test/" + i));
+        }
+        Metadata<?> storage = new Metadata<>(new FileSystemKeyValueStorage.Builder())
+                .withParameter("root", "/var/lib/mlops4j/registry")
+                .withParameter("parallelism", 8)
+                .withParameter("shardDepth", 2)
+                .withParameter("durability", "GROUP_COMMIT")
+                .withParameter("keyFilter", true);
+        this.metadata = new Metadata<>(new BaseModel.Builder())
+                .withParameter("configuration", new Metadata(new DL4JModelConfiguration.Builder())
+                        .withParameter("type", "org.deeplearning4j.nn.multilayer.MultiLayerNetwork"))
+                .withParameter("evaluator", new Metadata<>(new DL4JModelEvaluator.Builder()))
+                .withParameter("inference", new Metadata(new DL4JInference.Builder()))
+                .withParameter("trainer", new Metadata<>(new DL4JTrainer.Builder()).withParameter("epochs", 10))
+                .withParameter("id", "mnist/1.0.0")
+                .withParameter("modelRegistry", new Metadata<>(new KeyValueModelRegistry.Builder())
+                        .withParameter("storage", storage))
+                .withParameter("evaluations", evaluations);
+        this.json = this.metadata.asBytes(Metadata.Format.JSON);
+        this.binary = this.metadata.asBytes(Metadata.Format.BINARY);
+        System.out.printf("%nJSON %d bytes, binary %d bytes%n", this.json.length, this.binary.length);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return this.metadata.asBytes(Metadata.Format.JSON);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return this.metadata.asBytes(Metadata.Format.BINARY);
+    }
+
+    @Benchmark
+    public Metadata<?> decodeJson() throws DurabilityException {
+        Metadata<?> metadata = new Metadata<>();
+        metadata.fromBytes(this.json);
+        return metadata;
+    }
+
+    @Benchmark
+    public Metadata<?> decodeBinary() throws DurabilityException {
+        Metadata<?> metadata = new Metadata<>();
+        metadata.fromBytes(this.binary);
+        return metadata;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MetadataFormatBenchmark.class.getSimpleName()).build()).run();
+    }
+}
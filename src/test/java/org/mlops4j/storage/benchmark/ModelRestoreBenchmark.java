@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2020 Michał Żelechowski <MichalZelechowski@github.com>.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.mlops4j.storage.benchmark;
+
+import com.google.common.collect.Lists;
+import org.mlops4j.evaluation.api.Evaluation;
+import org.mlops4j.fixture.TestEvaluation;
+import org.mlops4j.fixture.TestEvaluationConfiguration;
+import org.mlops4j.fixture.TestInference;
+import org.mlops4j.fixture.TestModelConfiguration;
+import org.mlops4j.fixture.TestModelEvaluator;
+import org.mlops4j.fixture.TestTrainer;
+import org.mlops4j.model.api.Model;
+import org.mlops4j.model.api.ModelId;
+import org.mlops4j.model.impl.BaseModel;
+import org.mlops4j.model.registry.impl.KeyValueModelRegistry;
+import org.mlops4j.storage.api.exception.DurabilityException;
+import org.mlops4j.storage.impl.InMemoryKeyValueStorage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures restoring a model with a number of evaluations from {@link KeyValueModelRegistry}, which is dominated by
+ * invoking builder setters for every restored parameter, against projecting its id and evaluations only.
+ *
+ * @author Michał Żelechowski <MichalZelechowski@github.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelRestoreBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int evaluations;
+
+    private KeyValueModelRegistry registry;
+    private ModelId id;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DurabilityException {
+        this.registry = new KeyValueModelRegistry(new InMemoryKeyValueStorage.Builder().build());
+        List<Evaluation> evaluations = Lists.newArrayList();
+        for (int i = 0; i < this.evaluations; i++) {
+            evaluations.add(new TestEvaluation(i));
+        }
+        Model model = new BaseModel.Builder()
+                .configuration(new TestModelConfiguration.Builder().build())
+                .evaluationConfiguration(new TestEvaluationConfiguration.Builder().build())
+                .evaluator(new TestModelEvaluator.Builder().build())
+                .inference(new TestInference.Builder().build())
+                .trainer(new TestTrainer.Builder().build())
+                .modelRegistry(this.registry)
+                .name("benchmarkModel")
+                .version("1.0")
+                .evaluations(evaluations)
+                .build();
+        this.registry.put(model);
+        this.id = model.getId();
+    }
+
+    @Benchmark
+    public Model get() throws DurabilityException {
+        return this.registry.get(this.id).orElseThrow();
+    }
+
+    @Benchmark
+    public Map<String, Object> project() throws DurabilityException {
+        return this.registry.project(this.id, "id", "parent", "evaluations").orElseThrow();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ModelRestoreBenchmark.class.getSimpleName()).build()).run();
+    }
+}